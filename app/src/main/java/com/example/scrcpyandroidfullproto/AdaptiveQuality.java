@@ -0,0 +1,107 @@
+package com.example.scrcpyandroidfullproto;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.scrcpy.proto.LatencyHistogram;
+import com.example.scrcpy.proto.MetricsRegistry;
+import com.example.scrcpy.proto.StreamGovernor;
+
+/**
+ * Feeds a {@link StreamGovernor} one health sample per second, derived from the stream metrics,
+ * and reports the profile changes it decides on. Runs on the main thread.
+ */
+final class AdaptiveQuality {
+    interface Listener {
+        void onProfileChange(StreamGovernor.Profile profile);
+    }
+
+    private static final long INTERVAL_MS = 1000;
+    private static final String DECODE = ScrcpyVideoClient.METRIC_LATENCY_PREFIX + "decode";
+    private static final String END_TO_END = ScrcpyVideoClient.METRIC_LATENCY_PREFIX + "end_to_end";
+    private static final String TRANSIT_JITTER = ScrcpyVideoClient.METRIC_LATENCY_PREFIX + "transit_jitter";
+
+    private final MetricsRegistry metrics;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable tick = this::tick;
+    private StreamGovernor governor;
+    private MetricsRegistry.Snapshot previous;
+
+    AdaptiveQuality(MetricsRegistry metrics, Listener listener) {
+        this.metrics = metrics;
+        this.listener = listener;
+    }
+
+    void start(StreamGovernor governor) {
+        stop();
+        this.governor = governor;
+        handler.postDelayed(tick, INTERVAL_MS);
+    }
+
+    void stop() {
+        handler.removeCallbacks(tick);
+        governor = null;
+        previous = null;
+    }
+
+    boolean isRunning() {
+        return governor != null;
+    }
+
+    private void tick() {
+        MetricsRegistry.Snapshot current = metrics.snapshot();
+        MetricsRegistry.Snapshot last = previous;
+        previous = current;
+        handler.postDelayed(tick, INTERVAL_MS);
+        if (last == null) {
+            return;
+        }
+        StreamGovernor.Profile change = governor.onSample(sample(current, last));
+        if (change != null) {
+            listener.onProfileChange(change);
+        }
+    }
+
+    static StreamGovernor.Sample sample(MetricsRegistry.Snapshot current, MetricsRegistry.Snapshot previous) {
+        // Drop counters belong to the session's decode queue and restart with it.
+        long dropped = Math.max(0, droppedFrames(current) - droppedFrames(previous));
+        return new StreamGovernor.Sample(current.nanoTime,
+                current.rate(ScrcpyVideoClient.METRIC_BYTES, previous) * 8,
+                current.value(ScrcpyVideoClient.METRIC_QUEUE_DEPTH),
+                samplesSince(current.histogram(DECODE), previous.histogram(DECODE)),
+                dropped,
+                meanSince(current.histogram(END_TO_END), previous.histogram(END_TO_END)),
+                meanSince(current.histogram(TRANSIT_JITTER), previous.histogram(TRANSIT_JITTER)));
+    }
+
+    private static long droppedFrames(MetricsRegistry.Snapshot snapshot) {
+        return snapshot.value(ScrcpyVideoClient.METRIC_DROPPED_NON_REFERENCE)
+                + snapshot.value(ScrcpyVideoClient.METRIC_DROPPED_TO_KEY_FRAME);
+    }
+
+    private static long samplesSince(LatencyHistogram.Snapshot current, LatencyHistogram.Snapshot previous) {
+        if (current == null) {
+            return 0;
+        }
+        if (previous == null || current.count < previous.count) {
+            // Reset in between: everything recorded belongs to this interval.
+            return current.count;
+        }
+        return current.count - previous.count;
+    }
+
+    /**
+     * Mean of the samples recorded between two snapshots of a cumulative histogram.
+     */
+    private static long meanSince(LatencyHistogram.Snapshot current, LatencyHistogram.Snapshot previous) {
+        long count = samplesSince(current, previous);
+        if (count == 0) {
+            return 0;
+        }
+        if (count == current.count) {
+            return current.meanNanos;
+        }
+        return (current.meanNanos * current.count - previous.meanNanos * previous.count) / count;
+    }
+}
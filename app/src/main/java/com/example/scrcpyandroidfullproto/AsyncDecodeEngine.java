@@ -0,0 +1,170 @@
+package com.example.scrcpyandroidfullproto;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import com.example.scrcpy.proto.DecodeQueue;
+import com.example.scrcpy.proto.PipelineLatency;
+import com.example.scrcpy.proto.PooledPacket;
+import com.example.scrcpy.proto.VideoCodec;
+import com.example.scrcpy.proto.VideoCodecMetadata;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Callback engine: {@link MediaCodec.Callback} runs on a {@link HandlerThread}, which queues a
+ * packet as soon as both a packet and an input buffer are available and renders each output
+ * buffer the moment it is reported. Nothing polls, so no frame waits on a dequeue timeout.
+ */
+@RequiresApi(Build.VERSION_CODES.M)
+final class AsyncDecodeEngine extends VideoDecodeEngine {
+    private final HandlerThread thread = new HandlerThread("scrcpy-video-decoder");
+    private final AtomicBoolean feedPending = new AtomicBoolean();
+    private final Runnable feed = this::feed;
+    private final MediaCodec.Callback callback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+            if (discardStale) {
+                return;
+            }
+            addFreeInput(index);
+            feed();
+        }
+
+        @Override
+        public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+            if (discardStale) {
+                return;
+            }
+            try {
+                renderOutput(index, info.presentationTimeUs);
+            } catch (IllegalStateException e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+            fail(e);
+        }
+
+        @Override
+        public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+        }
+    };
+    private final Runnable park = this::parkIfRequested;
+    private final Runnable endDiscardStale = () -> discardStale = false;
+    private Handler handler;
+    /**
+     * Set from a flush until the callbacks queued before it have run: their indexes are invalid.
+     * Handler thread only.
+     */
+    private boolean discardStale;
+    /** Input buffer indexes reported by the codec and not yet filled; handler thread only. */
+    private int[] freeInputs = new int[16];
+    private int freeHead;
+    private int freeCount;
+
+    AsyncDecodeEngine(MediaCodec decoder, DecoderTuning tuning, ScrcpyVideoClient.FramePacing pacing,
+                      PipelineLatency latency, VideoCodec codec, VideoCodecMetadata meta, Surface surface,
+                      DecodeQueue queue, ScrcpyVideoClient.Listener listener) {
+        super(decoder, tuning, pacing, latency, codec, meta, surface, queue, listener);
+    }
+
+    @Override
+    protected void startEngine() {
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    @Override
+    protected void stopEngine() {
+        active = false;
+        thread.quit();
+        joinUninterruptibly(thread);
+    }
+
+    @Override
+    protected void onPacketQueued() {
+        // One pending feed drains everything queued, so bursts do not flood the looper.
+        if (feedPending.compareAndSet(false, true)) {
+            handler.post(feed);
+        }
+    }
+
+    @Override
+    protected void requestPark() {
+        handler.post(park);
+    }
+
+    @Override
+    protected void afterFlush() {
+        freeCount = 0;
+        discardStale = true;
+        handler.post(endDiscardStale);
+        // In callback mode a flushed codec requests no input until restarted.
+        decoder.start();
+    }
+
+    @Override
+    protected void beforeConfigure() {
+        // Indexes from before stop() are invalid; stop() also discards their pending callbacks.
+        freeCount = 0;
+        decoder.setCallback(callback, handler);
+    }
+
+    private void feed() {
+        feedPending.set(false);
+        try {
+            while (active) {
+                if (isConfigured() && freeCount == 0) {
+                    break;
+                }
+                stage = "take_packet";
+                PooledPacket packet = queue.take(0);
+                if (packet == null) {
+                    break;
+                }
+                try {
+                    if (packet.isConfig()) {
+                        configure(packet);
+                    } else if (isConfigured()) {
+                        queueInput(pollFreeInput(), packet);
+                    }
+                } finally {
+                    packet.release();
+                }
+            }
+            reportDrops();
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    private void addFreeInput(int index) {
+        if (freeCount == freeInputs.length) {
+            int[] grown = new int[freeInputs.length * 2];
+            for (int i = 0; i < freeCount; i++) {
+                grown[i] = freeInputs[(freeHead + i) % freeInputs.length];
+            }
+            freeInputs = grown;
+            freeHead = 0;
+        }
+        freeInputs[(freeHead + freeCount) % freeInputs.length] = index;
+        freeCount++;
+    }
+
+    private int pollFreeInput() {
+        int index = freeInputs[freeHead];
+        freeHead = (freeHead + 1) % freeInputs.length;
+        freeCount--;
+        return index;
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.scrcpyandroidfullproto;
+
+import android.media.MediaCodecInfo.CodecProfileLevel;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import com.example.scrcpy.proto.SequenceParameterSet;
+import com.example.scrcpy.proto.VideoCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Builds decoder {@link MediaFormat}s from the stream's config packet, using the parsed SPS when
+ * available so the decoder knows the real size, profile/level and frame rate up front. Decoder
+ * specific low-latency keys are added by {@link DecoderTuning}.
+ */
+public final class DecoderFormats {
+    // Mirrors the server's packet size limit; a larger input buffer is never needed.
+    private static final int MAX_INPUT_SIZE_LIMIT = 4 * 1024 * 1024;
+
+    private DecoderFormats() {
+    }
+
+    public static MediaFormat create(VideoCodec codec, int width, int height, SequenceParameterSet sps,
+                                     ByteBuffer[] csd) {
+        if (sps != null && sps.width > 0 && sps.height > 0) {
+            width = sps.width;
+            height = sps.height;
+        }
+        MediaFormat format = MediaFormat.createVideoFormat(codec.mimeType, width, height);
+        for (int i = 0; i < csd.length; i++) {
+            format.setByteBuffer("csd-" + i, csd[i]);
+        }
+        // An uncompressed 4:2:0 frame bounds any key frame, so large IDRs always fit in one buffer.
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, Math.min(width * height * 3 / 2, MAX_INPUT_SIZE_LIMIT));
+        if (sps == null) {
+            return format;
+        }
+
+        int profile = codec == VideoCodec.H265 ? hevcProfile(sps) : avcProfile(sps);
+        int level = codec == VideoCodec.H265 ? hevcLevel(sps) : avcLevel(sps);
+        if (profile > 0 && level > 0) {
+            format.setInteger(MediaFormat.KEY_PROFILE, profile);
+            format.setInteger(MediaFormat.KEY_LEVEL, level);
+        }
+        float frameRate = sps.frameRate();
+        if (frameRate > 0) {
+            format.setFloat(MediaFormat.KEY_FRAME_RATE, frameRate);
+        }
+        return format;
+    }
+
+    private static int avcProfile(SequenceParameterSet sps) {
+        switch (sps.profileIdc) {
+            case 66:
+                // constraint_set1_flag marks Constrained Baseline.
+                return (sps.constraintFlags & 0x40) != 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1
+                        ? CodecProfileLevel.AVCProfileConstrainedBaseline
+                        : CodecProfileLevel.AVCProfileBaseline;
+            case 77:
+                return CodecProfileLevel.AVCProfileMain;
+            case 88:
+                return CodecProfileLevel.AVCProfileExtended;
+            case 100:
+                return CodecProfileLevel.AVCProfileHigh;
+            case 110:
+                return CodecProfileLevel.AVCProfileHigh10;
+            case 122:
+                return CodecProfileLevel.AVCProfileHigh422;
+            case 244:
+                return CodecProfileLevel.AVCProfileHigh444;
+            default:
+                return 0;
+        }
+    }
+
+    private static int avcLevel(SequenceParameterSet sps) {
+        switch (sps.levelIdc) {
+            case 9:
+                return CodecProfileLevel.AVCLevel1b;
+            case 10:
+                return CodecProfileLevel.AVCLevel1;
+            case 11:
+                // constraint_set3_flag turns level 1.1 into 1b outside the High profiles.
+                return (sps.constraintFlags & 0x10) != 0 && sps.profileIdc < 100
+                        ? CodecProfileLevel.AVCLevel1b
+                        : CodecProfileLevel.AVCLevel11;
+            case 12:
+                return CodecProfileLevel.AVCLevel12;
+            case 13:
+                return CodecProfileLevel.AVCLevel13;
+            case 20:
+                return CodecProfileLevel.AVCLevel2;
+            case 21:
+                return CodecProfileLevel.AVCLevel21;
+            case 22:
+                return CodecProfileLevel.AVCLevel22;
+            case 30:
+                return CodecProfileLevel.AVCLevel3;
+            case 31:
+                return CodecProfileLevel.AVCLevel31;
+            case 32:
+                return CodecProfileLevel.AVCLevel32;
+            case 40:
+                return CodecProfileLevel.AVCLevel4;
+            case 41:
+                return CodecProfileLevel.AVCLevel41;
+            case 42:
+                return CodecProfileLevel.AVCLevel42;
+            case 50:
+                return CodecProfileLevel.AVCLevel5;
+            case 51:
+                return CodecProfileLevel.AVCLevel51;
+            case 52:
+                return CodecProfileLevel.AVCLevel52;
+            default:
+                return 0;
+        }
+    }
+
+    private static int hevcProfile(SequenceParameterSet sps) {
+        switch (sps.profileIdc) {
+            case 1:
+                return CodecProfileLevel.HEVCProfileMain;
+            case 2:
+                return CodecProfileLevel.HEVCProfileMain10;
+            default:
+                return 0;
+        }
+    }
+
+    private static int hevcLevel(SequenceParameterSet sps) {
+        // HEVC{Main,High}TierLevel{1 .. 62} are consecutive bits, Main then High for each level.
+        int[] levels = {30, 60, 63, 90, 93, 120, 123, 150, 153, 156, 180, 183, 186};
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] == sps.levelIdc) {
+                return 1 << (2 * i + (sps.constraintFlags & 1));
+            }
+        }
+        return 0;
+    }
+}
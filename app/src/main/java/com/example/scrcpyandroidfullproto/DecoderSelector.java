@@ -0,0 +1,71 @@
+package com.example.scrcpyandroidfullproto;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+
+import com.example.scrcpy.proto.VideoCodec;
+
+import java.util.Locale;
+
+public final class DecoderSelector {
+    // AV1 is left out of automatic selection: few sender devices have an AV1 encoder, and the
+    // server exits when the requested encoder is missing.
+    private static final VideoCodec[] AUTO_PREFERENCE = {VideoCodec.H265, VideoCodec.H264};
+
+    private DecoderSelector() {
+    }
+
+    /**
+     * Returns the most efficient codec this device can decode in hardware, falling back to H.264.
+     */
+    public static VideoCodec selectPreferredCodec() {
+        for (VideoCodec codec : AUTO_PREFERENCE) {
+            MediaCodecInfo info = findDecoder(codec.mimeType);
+            if (info != null && isHardware(info)) {
+                return codec;
+            }
+        }
+        return VideoCodec.H264;
+    }
+
+    /**
+     * Returns a decoder for {@code mimeType}, preferring hardware ones, or null if there is none.
+     */
+    public static MediaCodecInfo findDecoder(String mimeType) {
+        MediaCodecInfo software = null;
+        MediaCodecList list = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+        for (MediaCodecInfo info : list.getCodecInfos()) {
+            if (info.isEncoder() || !supportsType(info, mimeType)) {
+                continue;
+            }
+            if (isHardware(info)) {
+                return info;
+            }
+            if (software == null) {
+                software = info;
+            }
+        }
+        return software;
+    }
+
+    public static boolean isHardware(MediaCodecInfo info) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return info.isHardwareAccelerated();
+        }
+        String name = info.getName().toLowerCase(Locale.US);
+        return !name.startsWith("omx.google.")
+                && !name.startsWith("c2.android.")
+                && !name.startsWith("omx.ffmpeg.")
+                && !name.contains(".sw.");
+    }
+
+    private static boolean supportsType(MediaCodecInfo info, String mimeType) {
+        for (String type : info.getSupportedTypes()) {
+            if (type.equalsIgnoreCase(mimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.scrcpyandroidfullproto;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import com.example.scrcpy.proto.SequenceParameterSet;
+import com.example.scrcpy.proto.VideoCodec;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Low-latency decoder keys for one decoder. Options a decoder does not advertise, or that the
+ * stream's SPS rules out, are never tried; if {@code configure} rejects the rest, they are dropped
+ * one at a time (riskiest first) until it succeeds. The dropped options and the first-frame latency
+ * are cached per decoder and OS build, so later sessions skip what failed while still deciding the
+ * rest from their own SPS.
+ */
+final class DecoderTuning {
+    enum Option {
+        LOW_LATENCY,
+        PRIORITY,
+        OPERATING_RATE,
+        VENDOR
+    }
+
+    /** Dropped first when configure fails: vendor keys are undocumented, KEY_LOW_LATENCY is advertised. */
+    private static final Option[] FALLBACK_ORDER = {
+            Option.VENDOR, Option.OPERATING_RATE, Option.PRIORITY, Option.LOW_LATENCY
+    };
+    private static final Object CACHE_LOCK = new Object();
+
+    private final MediaCodecInfo info;
+    private final VideoCodec codec;
+    private final File cacheFile;
+    private final String cacheKey;
+    private boolean fromCache;
+    /** Dropped to get {@code configure} to succeed, in this or an earlier session. */
+    private final EnumSet<Option> rejected = EnumSet.noneOf(Option.class);
+
+    /**
+     * @param cacheFile properties file shared by all decoders, or null to probe every session
+     */
+    DecoderTuning(MediaCodecInfo info, VideoCodec codec, File cacheFile) {
+        this.info = info;
+        this.codec = codec;
+        this.cacheFile = cacheFile;
+        cacheKey = info.getName() + "/" + codec.mimeType;
+    }
+
+    String decoderName() {
+        return info.getName();
+    }
+
+    /**
+     * Options to try first: everything the decoder may support for a stream with {@code sps}, less
+     * the options rejected before.
+     */
+    EnumSet<Option> initialOptions(SequenceParameterSet sps) {
+        EnumSet<Option> options = supportedOptions(sps);
+        String cached = readCache().getProperty(cacheKey + ".rejected");
+        fromCache = cached != null;
+        if (cached != null) {
+            for (String name : cached.split(",")) {
+                try {
+                    rejected.add(Option.valueOf(name));
+                } catch (IllegalArgumentException ignored) {
+                    // Empty, or written by another app version; the next probe rewrites it.
+                }
+            }
+        }
+        options.removeAll(rejected);
+        return options;
+    }
+
+    /**
+     * True when {@link #initialOptions} used the result of a previous probe.
+     */
+    boolean isFromCache() {
+        return fromCache;
+    }
+
+    /**
+     * Removes the riskiest remaining option after {@code configure} rejected {@code options}.
+     * Returns false if there was nothing left to remove.
+     */
+    boolean fallBack(EnumSet<Option> options) {
+        for (Option option : FALLBACK_ORDER) {
+            if (options.remove(option)) {
+                rejected.add(option);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void apply(MediaFormat format, EnumSet<Option> options) {
+        if (options.contains(Option.LOW_LATENCY) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            format.setInteger(MediaFormat.KEY_LOW_LATENCY, 1);
+        }
+        if (options.contains(Option.PRIORITY) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            format.setInteger(MediaFormat.KEY_PRIORITY, 0); // 0 = realtime
+        }
+        if (options.contains(Option.OPERATING_RATE) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // Asks for the highest clocks, so each frame decodes as fast as the hardware can.
+            format.setInteger(MediaFormat.KEY_OPERATING_RATE, Short.MAX_VALUE);
+        }
+        if (options.contains(Option.VENDOR)) {
+            applyVendorKeys(format);
+        }
+    }
+
+    /**
+     * Stores the options {@code configure} rejected so far and the time from the first queued
+     * input to the first rendered frame. The file is written on a background thread, as this is
+     * called from the decoder's.
+     */
+    void recordResult(long firstFrameUs) {
+        if (cacheFile == null) {
+            return;
+        }
+        StringBuilder names = new StringBuilder();
+        for (Option option : rejected) {
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(option.name());
+        }
+        String rejectedNames = names.toString();
+        new Thread(() -> writeResult(rejectedNames, firstFrameUs), "scrcpy-decoder-tuning").start();
+    }
+
+    private void writeResult(String rejectedNames, long firstFrameUs) {
+        synchronized (CACHE_LOCK) {
+            Properties cache = readCache();
+            // Accepted sets cached by earlier versions were only valid for the SPS they were probed with.
+            cache.remove(cacheKey + ".options");
+            cache.setProperty(cacheKey + ".rejected", rejectedNames);
+            if (firstFrameUs >= 0) {
+                cache.setProperty(cacheKey + ".firstFrameUs", Long.toString(firstFrameUs));
+            }
+            try (OutputStream out = new FileOutputStream(cacheFile)) {
+                cache.store(out, "Decoder low-latency probe results");
+            } catch (IOException ignored) {
+                // Only a cache: the next session probes again.
+            }
+        }
+    }
+
+    private EnumSet<Option> supportedOptions(SequenceParameterSet sps) {
+        EnumSet<Option> options = EnumSet.noneOf(Option.class);
+        // Low-latency output skips reordering, which is only safe when the stream has no B-frames.
+        boolean noReordering = sps != null && sps.hasNoReordering();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && noReordering) {
+            MediaCodecInfo.CodecCapabilities capabilities = info.getCapabilitiesForType(codec.mimeType);
+            if (capabilities.isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_LowLatency)) {
+                options.add(Option.LOW_LATENCY);
+            }
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            options.add(Option.PRIORITY);
+            options.add(Option.OPERATING_RATE);
+        }
+        if (noReordering && vendorPrefix() != null) {
+            options.add(Option.VENDOR);
+        }
+        return options;
+    }
+
+    private void applyVendorKeys(MediaFormat format) {
+        String vendor = vendorPrefix();
+        if (vendor == null) {
+            return;
+        }
+        switch (vendor) {
+            case "qcom":
+                format.setInteger("vendor.qti-ext-dec-picture-order.enable", 1);
+                format.setInteger("vendor.qti-ext-dec-low-latency.enable", 1);
+                break;
+            case "exynos":
+                format.setInteger("vendor.rtc-ext-dec-low-latency.enable", 1);
+                break;
+            case "hisi":
+                format.setInteger("vendor.hisi-ext-low-latency-video-dec.video-scene-for-low-latency-req", 1);
+                format.setInteger("vendor.hisi-ext-low-latency-video-dec.video-scene-for-low-latency-rdy", -1);
+                break;
+            case "amlogic":
+                format.setInteger("vendor.low-latency.enable", 1);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private String vendorPrefix() {
+        String name = info.getName().toLowerCase(Locale.US);
+        if (name.startsWith("omx.qcom.") || name.startsWith("c2.qti.")) {
+            return "qcom";
+        }
+        if (name.startsWith("omx.exynos.") || name.startsWith("c2.exynos.")) {
+            return "exynos";
+        }
+        if (name.startsWith("omx.hisi.") || name.startsWith("c2.hisi.")) {
+            return "hisi";
+        }
+        if (name.startsWith("omx.amlogic.") || name.startsWith("c2.amlogic.")) {
+            return "amlogic";
+        }
+        return null;
+    }
+
+    /**
+     * Loads the cache, discarding it after an OS update since decoder behaviour may have changed.
+     */
+    private Properties readCache() {
+        Properties cache = new Properties();
+        if (cacheFile == null || !cacheFile.isFile()) {
+            cache.setProperty("fingerprint", Build.FINGERPRINT);
+            return cache;
+        }
+        synchronized (CACHE_LOCK) {
+            try (InputStream in = new FileInputStream(cacheFile)) {
+                cache.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                cache.clear();
+            }
+        }
+        if (!Build.FINGERPRINT.equals(cache.getProperty("fingerprint"))) {
+            cache.clear();
+            cache.setProperty("fingerprint", Build.FINGERPRINT);
+        }
+        return cache;
+    }
+}
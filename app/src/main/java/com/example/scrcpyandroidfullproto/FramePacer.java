@@ -0,0 +1,194 @@
+package com.example.scrcpyandroidfullproto;
+
+import android.media.MediaCodec;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Choreographer;
+
+import com.example.scrcpy.proto.PipelineLatency;
+
+/**
+ * Holds decoded output buffers and releases them on {@link Choreographer} vsync: each vsync renders
+ * only the newest frame that is due, timestamped for the next vsync, and drops older ones without
+ * rendering. With the jitter buffer, a frame is due a few milliseconds after its expected arrival
+ * (pts plus the minimum observed transit), sized from the measured arrival jitter, so bursty
+ * delivery is smoothed instead of shown as a stall followed by a catch-up.
+ *
+ * <p>{@link #onFrameDecoded} and {@link #flush} may be called from any thread; vsync callbacks
+ * run on the pacer's own thread.
+ */
+final class FramePacer implements Choreographer.FrameCallback {
+    // Frames held per vsync at most: holding more would starve the decoder of output buffers.
+    private static final int MAX_PENDING = 3;
+    private static final long DEFAULT_VSYNC_PERIOD_NANOS = 16_666_667L;
+    private static final long MAX_JITTER_DELAY_NANOS = 50_000_000L;
+    // Lets the transit baseline rise slowly, so clock drift or a lasting route change is followed.
+    private static final long BASELINE_DRIFT_NANOS = 20_000L;
+
+    private final MediaCodec decoder;
+    private final PipelineLatency latency;
+    private final boolean jitterBuffer;
+    private final HandlerThread thread = new HandlerThread("scrcpy-frame-pacer");
+    private final Object lock = new Object();
+    private final int[] pendingIndexes = new int[MAX_PENDING];
+    private final long[] pendingDueNanos = new long[MAX_PENDING];
+    private final long[] pendingDecodedNanos = new long[MAX_PENDING];
+    private final long[] pendingHeaderNanos = new long[MAX_PENDING];
+    private int pendingCount;
+    private Handler handler;
+    private Choreographer choreographer;
+    private boolean callbackPosted;
+    private final Runnable postCallback = this::postFrameCallback;
+    private long lastFrameTimeNanos;
+    private long vsyncPeriodNanos = DEFAULT_VSYNC_PERIOD_NANOS;
+    private long baselineTransitNanos = Long.MAX_VALUE;
+    private long lastTransitNanos;
+    private long jitterNanos;
+    private volatile long renderedFrames;
+    private volatile long skippedFrames;
+
+    FramePacer(MediaCodec decoder, PipelineLatency latency, boolean jitterBuffer) {
+        this.decoder = decoder;
+        this.latency = latency;
+        this.jitterBuffer = jitterBuffer;
+    }
+
+    void start() {
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        // Choreographer.getInstance() binds to the calling thread's looper.
+        handler.post(() -> choreographer = Choreographer.getInstance());
+    }
+
+    void stop() {
+        flush();
+        thread.quit();
+        VideoDecodeEngine.joinUninterruptibly(thread);
+    }
+
+    /**
+     * Takes ownership of output buffer {@code index}, decoded at {@code now}; {@code headerNanos}
+     * is passed on to {@link PipelineLatency#onReleased}.
+     */
+    void onFrameDecoded(int index, long ptsUs, long now, long headerNanos) {
+        synchronized (lock) {
+            long dueNanos = now;
+            if (jitterBuffer) {
+                long transit = now - ptsUs * 1000;
+                // RFC 3550 interarrival jitter: a smoothed mean deviation of the transit time.
+                if (baselineTransitNanos != Long.MAX_VALUE) {
+                    long deviation = Math.abs(transit - lastTransitNanos);
+                    jitterNanos += (deviation - jitterNanos) / 16;
+                }
+                lastTransitNanos = transit;
+                baselineTransitNanos = Math.min(transit, baselineTransitNanos == Long.MAX_VALUE
+                        ? transit : baselineTransitNanos + BASELINE_DRIFT_NANOS);
+                long delay = Math.min(2 * jitterNanos, MAX_JITTER_DELAY_NANOS);
+                dueNanos = ptsUs * 1000 + baselineTransitNanos + delay;
+            }
+            if (pendingCount == MAX_PENDING) {
+                // The oldest frame would never win a vsync against the newer ones anyway.
+                decoder.releaseOutputBuffer(pendingIndexes[0], false);
+                skippedFrames++;
+                removePending(1);
+            }
+            pendingIndexes[pendingCount] = index;
+            pendingDueNanos[pendingCount] = dueNanos;
+            pendingDecodedNanos[pendingCount] = now;
+            pendingHeaderNanos[pendingCount] = headerNanos;
+            pendingCount++;
+        }
+        handler.post(postCallback);
+    }
+
+    /**
+     * Forgets the held buffers, which {@link MediaCodec#stop} or {@link MediaCodec#flush} is about
+     * to invalidate, and the jitter estimate, since a new session restarts the pts timeline. Call
+     * before stopping, flushing or reconfiguring the decoder.
+     */
+    void flush() {
+        synchronized (lock) {
+            pendingCount = 0;
+            baselineTransitNanos = Long.MAX_VALUE;
+            jitterNanos = 0;
+        }
+    }
+
+    long renderedFrames() {
+        return renderedFrames;
+    }
+
+    /**
+     * Frames decoded but never shown because a newer one was due at the same vsync.
+     */
+    long skippedFrames() {
+        return skippedFrames;
+    }
+
+    private void postFrameCallback() {
+        if (!callbackPosted && choreographer != null) {
+            callbackPosted = true;
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        callbackPosted = false;
+        if (lastFrameTimeNanos != 0) {
+            long period = frameTimeNanos - lastFrameTimeNanos;
+            // Consecutive callbacks are one vsync apart; longer gaps mean we were idle.
+            if (period > 4_000_000L && period < 50_000_000L) {
+                vsyncPeriodNanos += (period - vsyncPeriodNanos) / 8;
+            }
+        }
+        lastFrameTimeNanos = frameTimeNanos;
+        long presentNanos = frameTimeNanos + vsyncPeriodNanos;
+
+        boolean stillPending;
+        synchronized (lock) {
+            try {
+                stillPending = renderDue(presentNanos);
+            } catch (IllegalStateException e) {
+                // The decoder is being stopped or failed; the engine reports it.
+                pendingCount = 0;
+                stillPending = false;
+            }
+        }
+        if (stillPending) {
+            postFrameCallback();
+        }
+    }
+
+    /**
+     * Renders the newest due frame and drops the older ones; returns whether frames remain.
+     */
+    private boolean renderDue(long presentNanos) {
+        int newestDue = -1;
+        for (int i = 0; i < pendingCount; i++) {
+            if (pendingDueNanos[i] <= presentNanos) {
+                newestDue = i;
+            }
+        }
+        if (newestDue >= 0) {
+            for (int i = 0; i < newestDue; i++) {
+                decoder.releaseOutputBuffer(pendingIndexes[i], false);
+            }
+            decoder.releaseOutputBuffer(pendingIndexes[newestDue], presentNanos);
+            latency.onReleased(pendingHeaderNanos[newestDue], pendingDecodedNanos[newestDue], System.nanoTime());
+            skippedFrames += newestDue;
+            renderedFrames++;
+            removePending(newestDue + 1);
+        }
+        return pendingCount > 0;
+    }
+
+    private void removePending(int count) {
+        int remaining = pendingCount - count;
+        System.arraycopy(pendingIndexes, count, pendingIndexes, 0, remaining);
+        System.arraycopy(pendingDueNanos, count, pendingDueNanos, 0, remaining);
+        System.arraycopy(pendingDecodedNanos, count, pendingDecodedNanos, 0, remaining);
+        System.arraycopy(pendingHeaderNanos, count, pendingHeaderNanos, 0, remaining);
+        pendingCount = remaining;
+    }
+}
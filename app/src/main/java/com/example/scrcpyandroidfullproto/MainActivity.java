@@ -3,12 +3,16 @@ package com.example.scrcpyandroidfullproto;
 import android.app.AlertDialog;
 import android.content.ClipData;
 import android.content.ClipboardManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.SystemClock;
+import android.view.InputDevice;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
+import android.view.SurfaceHolder;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.widget.Button;
@@ -20,6 +24,9 @@ import android.widget.TextView;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.scrcpy.adb.NativeAdbBridge;
+import com.example.scrcpy.proto.MetricsRegistry;
+import com.example.scrcpy.proto.StreamGovernor;
+import com.example.scrcpy.proto.VideoCodec;
 import com.example.scrcpyandroidfullproto.view.AspectRatioSurfaceView;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.android.material.switchmaterial.SwitchMaterial;
@@ -38,11 +45,19 @@ public class MainActivity extends AppCompatActivity {
     private EditText pairCodeInput;
     private EditText localForwardPortInput;
     private TextView statusText;
+    private TextView metricsOverlay;
     private AspectRatioSurfaceView videoSurface;
     private View statusPanel;
     private Button resolutionButton;
     private Button fpsButton;
+    private Button codecButton;
     private SwitchMaterial autoClipboardSwitch;
+    private SwitchMaterial recordSwitch;
+    private SwitchMaterial asyncDecodeSwitch;
+    private SwitchMaterial jitterBufferSwitch;
+    private SwitchMaterial statsOverlaySwitch;
+    private SwitchMaterial metricsLogSwitch;
+    private SwitchMaterial adaptiveQualitySwitch;
     private Button disconnectStreamButton;
     private ImageButton navBackButton;
     private ImageButton navHomeButton;
@@ -58,6 +73,9 @@ public class MainActivity extends AppCompatActivity {
     private LinearLayout navPill;
     private ScrcpyVideoClient videoClient;
     private ScrcpyControlClient controlClient;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final MetricsReporter metricsReporter = new MetricsReporter(metrics);
+    private final AdaptiveQuality adaptiveQuality = new AdaptiveQuality(metrics, this::switchStreamProfile);
     private volatile NativeAdbBridge adbBridge;
     private volatile int remoteWidth;
     private volatile int remoteHeight;
@@ -65,6 +83,9 @@ public class MainActivity extends AppCompatActivity {
     private volatile boolean streamReady;
     private volatile int selectedMaxSize;
     private volatile int selectedMaxFps;
+    private volatile VideoCodec selectedCodec;
+    private volatile VideoCodec sessionCodec;
+    private volatile boolean adaptiveQualityEnabled;
     private boolean stretchToFit;
     private final int[] sizeOptions = {0, 426, 640, 854, 1280, 1920};
     private final String[] sizeLabels = {
@@ -77,6 +98,9 @@ public class MainActivity extends AppCompatActivity {
     };
     private final int[] fpsOptions = {0, 30, 45, 60};
     private final String[] fpsLabels = {"Auto", "30 fps", "45 fps", "60 fps"};
+    // null means pick the best hardware-decodable codec at connect time.
+    private final VideoCodec[] codecOptions = {null, VideoCodec.H264, VideoCodec.H265, VideoCodec.AV1};
+    private final String[] codecLabels = {"Auto", "H.264", "H.265", "AV1"};
     private boolean controlsVisible = false;
     private boolean sessionConnected = false;
     private ClipboardManager clipboardManager;
@@ -90,6 +114,7 @@ public class MainActivity extends AppCompatActivity {
     private static final long BACKGROUND_SESSION_GRACE_MS = 5 * 60 * 1000L;
     private static final long REMOTE_CLIPBOARD_GUARD_MS = 800;
     private static final long CLIPBOARD_SEND_DEBOUNCE_MS = 200;
+    private static final int HIGH_BITRATE_RECEIVE_BUFFER_BYTES = 2 * 1024 * 1024;
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private final Runnable clearRemoteClipboardGuard = () -> applyingRemoteClipboard = false;
     private final Runnable backgroundSessionTimeout = () -> {
@@ -117,7 +142,15 @@ public class MainActivity extends AppCompatActivity {
         videoSurface = findViewById(R.id.videoSurface);
         resolutionButton = findViewById(R.id.resolutionButton);
         fpsButton = findViewById(R.id.fpsButton);
+        codecButton = findViewById(R.id.codecButton);
         autoClipboardSwitch = findViewById(R.id.autoClipboardSwitch);
+        recordSwitch = findViewById(R.id.recordSwitch);
+        asyncDecodeSwitch = findViewById(R.id.asyncDecodeSwitch);
+        jitterBufferSwitch = findViewById(R.id.jitterBufferSwitch);
+        statsOverlaySwitch = findViewById(R.id.statsOverlaySwitch);
+        metricsLogSwitch = findViewById(R.id.metricsLogSwitch);
+        adaptiveQualitySwitch = findViewById(R.id.adaptiveQualitySwitch);
+        metricsOverlay = findViewById(R.id.metricsOverlay);
         disconnectStreamButton = findViewById(R.id.disconnectStreamButton);
         navBackButton = findViewById(R.id.navBackButton);
         navHomeButton = findViewById(R.id.navHomeButton);
@@ -131,6 +164,27 @@ public class MainActivity extends AppCompatActivity {
         controlOverlay = findViewById(R.id.controlOverlay);
         navPill = findViewById(R.id.navPill);
         videoSurface.setOnTouchListener(this::handleTouch);
+        videoSurface.setOnGenericMotionListener(this::handleGenericMotion);
+        videoSurface.getHolder().addCallback(new SurfaceHolder.Callback() {
+            @Override
+            public void surfaceCreated(SurfaceHolder holder) {
+                if (sessionConnected && videoClient.isActive()) {
+                    videoClient.resume(holder.getSurface());
+                    controlClient.requestVideoReset();
+                }
+            }
+
+            @Override
+            public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            }
+
+            @Override
+            public void surfaceDestroyed(SurfaceHolder holder) {
+                // Keeps the session connected without a decoder; the decoders, including a warm
+                // one, target this surface and cannot render to the next.
+                videoClient.suspend();
+            }
+        });
         clipboardManager = (ClipboardManager) getSystemService(CLIPBOARD_SERVICE);
         if (clipboardManager != null) {
             clipboardManager.addPrimaryClipChangedListener(hostClipboardListener);
@@ -146,6 +200,47 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        recordSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (isChecked) {
+                showRecordingFormatDialog();
+            } else {
+                videoClient.setRecording(null, ScrcpyVideoClient.RecordingFormat.MP4);
+            }
+        });
+
+        statsOverlaySwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            metricsOverlay.setVisibility(isChecked ? View.VISIBLE : View.GONE);
+            metricsReporter.setListener(isChecked
+                    ? summary -> runOnUiThread(() -> metricsOverlay.setText(summary))
+                    : null);
+        });
+
+        adaptiveQualityEnabled = adaptiveQualitySwitch.isChecked();
+        adaptiveQualitySwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            adaptiveQualityEnabled = isChecked;
+            if (!isChecked) {
+                // The current profile stays until the next connect.
+                adaptiveQuality.stop();
+            }
+        });
+
+        metricsLogSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (isChecked) {
+                File directory = getExternalFilesDir(null);
+                File file = new File(directory != null ? directory : getFilesDir(), "metrics.jsonl");
+                metricsReporter.setDumpFile(file);
+                statusText.setText("Logging metrics to " + file.getAbsolutePath());
+            } else {
+                metricsReporter.setDumpFile(null);
+            }
+        });
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            // MediaCodec callbacks need API 23; the client falls back to the polling decoder anyway.
+            asyncDecodeSwitch.setChecked(false);
+            asyncDecodeSwitch.setEnabled(false);
+        }
+
         setupTabs();
         updatePanelsForSession(false);
         updateStretchButtonText();
@@ -192,7 +287,8 @@ public class MainActivity extends AppCompatActivity {
                 controlClient.stop();
                 controlClient.start("127.0.0.1", forwardPort);
             }
-        });
+        }, metrics);
+        videoClient.setDecoderTuningCache(new File(getFilesDir(), "decoder-tuning.properties"));
 
         controlClient = new ScrcpyControlClient(new ScrcpyControlClient.Listener() {
             @Override
@@ -216,14 +312,24 @@ public class MainActivity extends AppCompatActivity {
                     applyRemoteClipboardText(text);
                 });
             }
-        });
+
+            @Override
+            public void onRoundTripAlert(boolean high, long roundTripNanos) {
+                long millis = roundTripNanos / 1_000_000L;
+                runOnUiThread(() -> statusText.setText(high
+                        ? "Input lag: control round trip " + millis + " ms"
+                        : millis > 0 ? "Input latency recovered (" + millis + " ms)"
+                        : "Input lag warning cleared"));
+            }
+        }, metrics);
 
         connectButton.setOnClickListener(v -> connectAndStart());
         disconnectButton.setOnClickListener(v -> disconnectSession());
         resolutionButton.setOnClickListener(v -> showResolutionDialog());
         fpsButton.setOnClickListener(v -> showFpsDialog());
+        codecButton.setOnClickListener(v -> showCodecDialog());
         disconnectStreamButton.setOnClickListener(v -> disconnectSession());
-        navBackButton.setOnClickListener(v -> sendKeyEvent(KeyEvent.KEYCODE_BACK));
+        navBackButton.setOnClickListener(v -> sendBackOrScreenOn());
         navHomeButton.setOnClickListener(v -> sendKeyEvent(KeyEvent.KEYCODE_HOME));
         navRecentButton.setOnClickListener(v -> sendKeyEvent(KeyEvent.KEYCODE_APP_SWITCH));
         stretchToggleButton.setOnClickListener(v -> toggleStretchToFit());
@@ -358,7 +464,9 @@ public class MainActivity extends AppCompatActivity {
 
     private void disconnectSession() {
         clearBackgroundSessionGrace();
+        adaptiveQuality.stop();
         videoClient.stop();
+        videoClient.releaseDecoder();
         controlClient.stop();
         currentLocalForwardPort = 0;
         streamReady = false;
@@ -377,7 +485,10 @@ public class MainActivity extends AppCompatActivity {
         }
         mainHandler.removeCallbacks(clearRemoteClipboardGuard);
         mainHandler.removeCallbacks(backgroundSessionTimeout);
+        metricsReporter.stop();
+        adaptiveQuality.stop();
         videoClient.stop();
+        videoClient.releaseDecoder();
         controlClient.stop();
     }
 
@@ -413,6 +524,7 @@ public class MainActivity extends AppCompatActivity {
         streamReady = false;
         currentLocalForwardPort = localForwardPort;
         controlClient.stop();
+        adaptiveQuality.stop();
 
         statusText.setText("Connecting Wi-Fi debug " + deviceIp + ":" + devicePort);
 
@@ -427,39 +539,27 @@ public class MainActivity extends AppCompatActivity {
                 adb.connect(deviceIp, devicePort);
                 File localServerJar = copyServerFromAssets();
                 adb.push(localServerJar.getAbsolutePath(), "/data/local/tmp/scrcpy-server.jar");
-                int scid = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
-                String scidHex = String.format(Locale.US, "%08x", scid);
-                String remoteSocket = "localabstract:scrcpy_" + scidHex;
-                adb.forward(localForwardPort, remoteSocket);
-                String sizeArg = selectedMaxSize > 0 ? "max_size=" + selectedMaxSize + " " : "";
-                String fpsArg = selectedMaxFps > 0 ? "max_fps=" + selectedMaxFps + " " : "";
-                adb.shellAsync("CLASSPATH=/data/local/tmp/scrcpy-server.jar app_process / com.genymobile.scrcpy.Server 3.3.4 " +
-                                "scid=" + scidHex + " " +
-                                sizeArg +
-                                fpsArg +
-                                "tunnel_forward=true video=true audio=false control=true " +
-                                "video_codec=h264 send_device_meta=false send_codec_meta=true send_frame_meta=true raw_stream=false " +
-                                "cleanup=false send_dummy_byte=false",
-                        new NativeAdbBridge.ShellResultListener() {
-                            @Override
-                            public void onCompleted(String output) {
-                                if (output != null && !output.trim().isEmpty()) {
-                                    runOnUiThread(() -> statusText.setText("Server exited: " + output));
-                                }
-                            }
-
-                            @Override
-                            public void onError(Throwable throwable) {
-                                String msg = throwable == null || throwable.getMessage() == null
-                                        ? "unknown"
-                                        : throwable.getMessage();
-                                runOnUiThread(() -> statusText.setText("Server error: " + msg));
-                            }
-                        });
-
+                VideoCodec codec = selectedCodec != null ? selectedCodec : DecoderSelector.selectPreferredCodec();
+                sessionCodec = codec;
+                StreamGovernor governor = null;
+                String profileArgs;
+                if (adaptiveQualityEnabled) {
+                    // The chosen resolution and fps cap the ladder; the governor starts at its top.
+                    governor = new StreamGovernor(StreamGovernor.ladder(selectedMaxSize, selectedMaxFps),
+                            System.nanoTime());
+                    profileArgs = governor.profile().toServerArgs();
+                } else {
+                    profileArgs = (selectedMaxSize > 0 ? "max_size=" + selectedMaxSize + " " : "")
+                            + (selectedMaxFps > 0 ? "max_fps=" + selectedMaxFps + " " : "");
+                }
+                launchServer(adb, localForwardPort, codec, profileArgs);
+                StreamGovernor sessionGovernor = governor;
                 runOnUiThread(() -> {
-                    videoClient.start("127.0.0.1", localForwardPort,
-                            videoSurface.getHolder().getSurface());
+                    startVideoClient(localForwardPort,
+                            sessionGovernor != null ? sessionGovernor.profile().maxSize : selectedMaxSize);
+                    if (sessionGovernor != null) {
+                        adaptiveQuality.start(sessionGovernor);
+                    }
                     videoSurface.setStretchToFill(stretchToFit);
                     updatePanelsForSession(true);
                     hideSystemUI();
@@ -478,6 +578,85 @@ public class MainActivity extends AppCompatActivity {
         }, "connect-start").start();
     }
 
+    /**
+     * Starts the scrcpy server on a new socket name and forwards {@code localForwardPort} to it.
+     * {@code profileArgs} are the size, fps and bitrate arguments, each followed by a space.
+     */
+    private void launchServer(NativeAdbBridge adb, int localForwardPort, VideoCodec codec, String profileArgs)
+            throws Exception {
+        int scid = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+        String scidHex = String.format(Locale.US, "%08x", scid);
+        String remoteSocket = "localabstract:scrcpy_" + scidHex;
+        adb.forward(localForwardPort, remoteSocket);
+        runOnUiThread(() -> statusText.setText("Starting server with " + codec.serverName));
+        adb.shellAsync("CLASSPATH=/data/local/tmp/scrcpy-server.jar app_process / com.genymobile.scrcpy.Server 3.3.4 " +
+                        "scid=" + scidHex + " " +
+                        profileArgs +
+                        "tunnel_forward=true video=true audio=false control=true " +
+                        "video_codec=" + codec.serverName + " send_device_meta=false send_codec_meta=true send_frame_meta=true raw_stream=false " +
+                        "cleanup=false send_dummy_byte=false clipboard_autosync=false",
+                new NativeAdbBridge.ShellResultListener() {
+                    @Override
+                    public void onCompleted(String output) {
+                        if (output != null && !output.trim().isEmpty()) {
+                            runOnUiThread(() -> statusText.setText("Server exited: " + output));
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        String msg = throwable == null || throwable.getMessage() == null
+                                ? "unknown"
+                                : throwable.getMessage();
+                        runOnUiThread(() -> statusText.setText("Server error: " + msg));
+                    }
+                });
+    }
+
+    /**
+     * Starts the video client on the forwarded port; {@code maxSize} is the requested size, 0 for
+     * the device size.
+     */
+    private void startVideoClient(int localForwardPort, int maxSize) {
+        // Auto and 1080p sessions run at the highest bitrate: read them through NIO with a larger window.
+        boolean highBitrate = maxSize == 0 || maxSize >= 1920;
+        videoClient.setChannelReader(highBitrate, highBitrate ? HIGH_BITRATE_RECEIVE_BUFFER_BYTES : 0);
+        videoClient.setDecoderMode(asyncDecodeSwitch.isChecked()
+                ? ScrcpyVideoClient.DecoderMode.ASYNC : ScrcpyVideoClient.DecoderMode.SYNC);
+        videoClient.setFramePacing(jitterBufferSwitch.isChecked()
+                ? ScrcpyVideoClient.FramePacing.VSYNC_JITTER_BUFFER : ScrcpyVideoClient.FramePacing.VSYNC);
+        videoClient.start("127.0.0.1", localForwardPort, videoSurface.getHolder().getSurface());
+    }
+
+    /**
+     * Restarts the server with {@code profile} over the existing adb connection; the governor
+     * keeps running across the restart.
+     */
+    private void switchStreamProfile(StreamGovernor.Profile profile) {
+        NativeAdbBridge adb = adbBridge;
+        VideoCodec codec = sessionCodec;
+        int localForwardPort = currentLocalForwardPort;
+        if (adb == null || codec == null || localForwardPort <= 0 || inBackgroundGrace) {
+            return;
+        }
+        statusText.setText("Link changed, switching stream to " + profile);
+        streamReady = false;
+        videoClient.stop();
+        controlClient.stop();
+        new Thread(() -> {
+            try {
+                launchServer(adb, localForwardPort, codec, profile.toServerArgs());
+                runOnUiThread(() -> {
+                    if (adbBridge == adb && currentLocalForwardPort == localForwardPort) {
+                        startVideoClient(localForwardPort, profile.maxSize);
+                    }
+                });
+            } catch (Throwable t) {
+                handleStreamFailure("Stream profile switch failed: " + t.getMessage());
+            }
+        }, "profile-switch").start();
+    }
+
     private void handleStreamFailure(String status) {
         runOnUiThread(() -> {
             String message = (status == null || status.trim().isEmpty())
@@ -491,6 +670,7 @@ public class MainActivity extends AppCompatActivity {
                 return;
             }
             statusText.setText(message);
+            adaptiveQuality.stop();
             videoClient.stop();
             controlClient.stop();
             currentLocalForwardPort = 0;
@@ -606,24 +786,81 @@ public class MainActivity extends AppCompatActivity {
         return new RemotePoint(mappedX, mappedY);
     }
 
+    /**
+     * Dropped while the control channel is down, like touch input.
+     */
     private void sendKeyEvent(int keyCode) {
         ScrcpyControlClient control = controlClient;
         if (control != null && control.isReady()) {
             control.sendKeyPress(keyCode);
-            return;
         }
+    }
 
-        NativeAdbBridge bridge = adbBridge;
-        if (bridge == null) {
-            return;
+    private void sendBackOrScreenOn() {
+        ScrcpyControlClient control = controlClient;
+        if (control != null && control.isReady()) {
+            control.sendBackOrScreenOn(KeyEvent.ACTION_DOWN);
+            control.sendBackOrScreenOn(KeyEvent.ACTION_UP);
         }
-        new Thread(() -> {
-            try {
-                bridge.shell("input keyevent " + keyCode);
-            } catch (Throwable t) {
-                runOnUiThread(() -> statusText.setText("Input error: " + t.getMessage()));
+    }
+
+    @Override
+    public boolean dispatchKeyEvent(KeyEvent event) {
+        return forwardKeyboardEvent(event) || super.dispatchKeyEvent(event);
+    }
+
+    /**
+     * Forwards a physical keyboard to the device during a session: printable characters as
+     * INJECT_TEXT, everything else (arrows, delete, shortcuts) as key codes. Navigation and volume
+     * keys come from other input devices and stay local.
+     */
+    private boolean forwardKeyboardEvent(KeyEvent event) {
+        ScrcpyControlClient control = controlClient;
+        InputDevice device = event.getDevice();
+        if (!sessionConnected || control == null || !control.isReady() || device == null || device.isVirtual()
+                || device.getKeyboardType() != InputDevice.KEYBOARD_TYPE_ALPHABETIC) {
+            return false;
+        }
+        if (event.getAction() == KeyEvent.ACTION_MULTIPLE) {
+            // A string delivered at once, e.g. by a keyboard's compose key.
+            String characters = event.getCharacters();
+            if (characters == null) {
+                return false;
             }
-        }, "scrcpy-keyevent").start();
+            control.sendText(characters);
+            return true;
+        }
+        int unicodeChar = event.getUnicodeChar();
+        if (unicodeChar > 0 && !Character.isISOControl(unicodeChar)
+                && !event.isCtrlPressed() && !event.isAltPressed() && !event.isMetaPressed()) {
+            if (event.getAction() == KeyEvent.ACTION_DOWN) {
+                control.sendText(new String(Character.toChars(unicodeChar)));
+            }
+            return true;
+        }
+        control.sendKeyEvent(event.getAction(), event.getKeyCode(), event.getRepeatCount(), event.getMetaState());
+        return true;
+    }
+
+    /**
+     * Mouse wheel and touchpad scrolling over the video.
+     */
+    private boolean handleGenericMotion(View v, MotionEvent event) {
+        if (event.getActionMasked() != MotionEvent.ACTION_SCROLL || remoteWidth <= 0 || remoteHeight <= 0) {
+            return false;
+        }
+        ScrcpyControlClient control = controlClient;
+        if (control == null || !control.isReady()) {
+            return true;
+        }
+        RemotePoint point = mapToRemotePoint(v, event.getX(), event.getY());
+        if (point == null) {
+            return true;
+        }
+        control.sendScrollEvent(point.x, point.y, remoteWidth, remoteHeight,
+                event.getAxisValue(MotionEvent.AXIS_HSCROLL), event.getAxisValue(MotionEvent.AXIS_VSCROLL),
+                event.getButtonState());
+        return true;
     }
 
     private void toggleControlsVisibility() {
@@ -691,6 +928,40 @@ public class MainActivity extends AppCompatActivity {
                 .show();
     }
 
+    private void showCodecDialog() {
+        int current = 0;
+        for (int i = 0; i < codecOptions.length; i++) {
+            if (codecOptions[i] == selectedCodec) {
+                current = i;
+            }
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Video codec")
+                .setSingleChoiceItems(codecLabels, current, (dialog, which) -> {
+                    selectedCodec = codecOptions[which];
+                    codecButton.setText(codecLabels[which]);
+                    dialog.dismiss();
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void showRecordingFormatDialog() {
+        ScrcpyVideoClient.RecordingFormat[] formats = ScrcpyVideoClient.RecordingFormat.values();
+        String[] labels = {"MP4 video", "Raw stream + index", "Capture trace (.scap)"};
+        new AlertDialog.Builder(this)
+                .setTitle("Recording format")
+                .setSingleChoiceItems(labels, 0, (dialog, which) -> {
+                    File directory = getExternalFilesDir(Environment.DIRECTORY_MOVIES);
+                    videoClient.setRecording(directory, formats[which]);
+                    statusText.setText("Recording " + labels[which] + " to " + directory);
+                    dialog.dismiss();
+                })
+                .setNegativeButton(android.R.string.cancel, (dialog, which) -> recordSwitch.setChecked(false))
+                .setOnCancelListener(dialog -> recordSwitch.setChecked(false))
+                .show();
+    }
+
     private static int indexOfValue(int[] array, int value) {
         for (int i = 0; i < array.length; i++) {
             if (array[i] == value) {
@@ -810,7 +1081,8 @@ public class MainActivity extends AppCompatActivity {
         super.onResume();
         boolean wasInBackgroundGrace = inBackgroundGrace;
         clearBackgroundSessionGrace();
-        if (wasInBackgroundGrace && sessionConnected) {
+        if (wasInBackgroundGrace && sessionConnected && !videoClient.isActive()) {
+            // Still-connected sessions resume in surfaceCreated, without reconnecting.
             resumeSessionIfNeeded();
         }
         hideSystemUI();
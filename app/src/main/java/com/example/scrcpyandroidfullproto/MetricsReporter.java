@@ -0,0 +1,185 @@
+package com.example.scrcpyandroidfullproto;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.example.scrcpy.proto.LatencyHistogram;
+import com.example.scrcpy.proto.MetricsRegistry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Samples a {@link MetricsRegistry} once per second on its own thread, hands a short text summary
+ * to the listener (for the stats overlay) and optionally appends each sample as a JSON line to a
+ * file.
+ */
+final class MetricsReporter {
+    interface Listener {
+        /** Called on the reporter thread. */
+        void onSummary(String summary);
+    }
+
+    private static final String TAG = "MetricsReporter";
+    private static final long INTERVAL_MS = 1000;
+    private static final String DECODE = ScrcpyVideoClient.METRIC_LATENCY_PREFIX + "decode";
+    private static final String RENDER = ScrcpyVideoClient.METRIC_LATENCY_PREFIX + "render";
+    private static final String END_TO_END = ScrcpyVideoClient.METRIC_LATENCY_PREFIX + "end_to_end";
+    private static final String[] RATES = {
+            ScrcpyVideoClient.METRIC_PACKETS,
+            ScrcpyVideoClient.METRIC_BYTES,
+            DECODE,
+            RENDER,
+            ScrcpyControlClient.METRIC_MESSAGES
+    };
+
+    private final MetricsRegistry metrics;
+    private final Object lock = new Object();
+    private final Runnable tick = this::tick;
+    private HandlerThread thread;
+    private Handler handler;
+    private Listener listener;
+    private File dumpFile;
+    private Writer dump;
+    private MetricsRegistry.Snapshot previous;
+
+    MetricsReporter(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the overlay listener, or null to stop producing summaries.
+     */
+    void setListener(Listener listener) {
+        synchronized (lock) {
+            this.listener = listener;
+        }
+        updateRunning();
+    }
+
+    /**
+     * Sets the file JSON lines are appended to, or null to stop dumping.
+     */
+    void setDumpFile(File file) {
+        synchronized (lock) {
+            closeDumpLocked();
+            dumpFile = file;
+        }
+        updateRunning();
+    }
+
+    void stop() {
+        synchronized (lock) {
+            listener = null;
+            closeDumpLocked();
+            dumpFile = null;
+        }
+        updateRunning();
+    }
+
+    private void updateRunning() {
+        HandlerThread stopped = null;
+        synchronized (lock) {
+            boolean wanted = listener != null || dumpFile != null;
+            if (wanted && thread == null) {
+                thread = new HandlerThread("scrcpy-metrics");
+                thread.start();
+                handler = new Handler(thread.getLooper());
+                previous = null;
+                handler.post(tick);
+            } else if (!wanted && thread != null) {
+                handler.removeCallbacks(tick);
+                stopped = thread;
+                thread = null;
+                handler = null;
+            }
+        }
+        if (stopped != null) {
+            stopped.quit();
+        }
+    }
+
+    private void tick() {
+        MetricsRegistry.Snapshot current = metrics.snapshot();
+        MetricsRegistry.Snapshot last = previous;
+        previous = current;
+        Listener target;
+        synchronized (lock) {
+            if (handler == null) {
+                return;
+            }
+            handler.postDelayed(tick, INTERVAL_MS);
+            target = listener;
+            if (dumpFile != null && last != null) {
+                writeDumpLocked(current.toJson(last, RATES));
+            }
+        }
+        if (target != null && last != null) {
+            target.onSummary(summarize(current, last));
+        }
+    }
+
+    private void writeDumpLocked(String line) {
+        try {
+            if (dump == null) {
+                dump = new OutputStreamWriter(new FileOutputStream(dumpFile, true), StandardCharsets.UTF_8);
+            }
+            dump.write(line);
+            dump.write('\n');
+            dump.flush();
+        } catch (IOException e) {
+            Log.w(TAG, "Metrics dump failed, disabling: " + e.getMessage());
+            closeDumpLocked();
+            dumpFile = null;
+        }
+    }
+
+    private void closeDumpLocked() {
+        if (dump != null) {
+            try {
+                dump.close();
+            } catch (IOException ignored) {
+            }
+            dump = null;
+        }
+    }
+
+    static String summarize(MetricsRegistry.Snapshot current, MetricsRegistry.Snapshot previous) {
+        double mbps = current.rate(ScrcpyVideoClient.METRIC_BYTES, previous) * 8 / 1e6;
+        long drops = current.value(ScrcpyVideoClient.METRIC_DROPPED_NON_REFERENCE)
+                + current.value(ScrcpyVideoClient.METRIC_DROPPED_TO_KEY_FRAME);
+        return String.format(Locale.US,
+                "%.2f Mbps  rx %.0f / dec %.0f / out %.0f fps\n"
+                        + "decode %s  e2e %s\n"
+                        + "queue %d  dropped %d  skipped %d\n"
+                        + "control queue %d  moves dropped %d / merged %d\n"
+                        + "control rtt %s  recent %.1f ms",
+                mbps,
+                current.rate(ScrcpyVideoClient.METRIC_PACKETS, previous),
+                current.rate(DECODE, previous),
+                current.rate(RENDER, previous),
+                percentiles(current.histogram(DECODE)),
+                percentiles(current.histogram(END_TO_END)),
+                current.value(ScrcpyVideoClient.METRIC_QUEUE_DEPTH),
+                drops,
+                current.value(ScrcpyVideoClient.METRIC_DROPPED_RENDER),
+                current.value(ScrcpyControlClient.METRIC_QUEUE_DEPTH),
+                current.value(ScrcpyControlClient.METRIC_DROPPED_MOVES),
+                current.value(ScrcpyControlClient.METRIC_COALESCED_MOVES),
+                percentiles(current.histogram(ScrcpyControlClient.METRIC_RTT)),
+                current.value(ScrcpyControlClient.METRIC_RTT_RECENT) / 1e6);
+    }
+
+    private static String percentiles(LatencyHistogram.Snapshot snapshot) {
+        if (snapshot == null || snapshot.count == 0) {
+            return "-";
+        }
+        return String.format(Locale.US, "p50 %.1f / p99 %.1f ms", snapshot.p50Nanos / 1e6, snapshot.p99Nanos / 1e6);
+    }
+}
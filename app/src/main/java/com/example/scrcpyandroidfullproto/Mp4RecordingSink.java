@@ -0,0 +1,118 @@
+package com.example.scrcpyandroidfullproto;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import com.example.scrcpy.proto.FrameHeader;
+import com.example.scrcpy.proto.SequenceParameterSet;
+import com.example.scrcpy.proto.SpsParser;
+import com.example.scrcpy.proto.StreamRecorder;
+import com.example.scrcpy.proto.VideoCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Muxes the encoded packets into MP4 without re-encoding. An MP4 track cannot change its format,
+ * so a config change (e.g. a rotation) finishes the file and continues in {@code name-1.mp4}, ...
+ */
+public final class Mp4RecordingSink implements StreamRecorder.Sink {
+    private final File file;
+    private final VideoCodec codec;
+    private final int width;
+    private final int height;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private MediaMuxer muxer;
+    private int track = -1;
+    private byte[] config;
+    private int segment;
+    private byte[] wrappedArray;
+    private ByteBuffer wrapped;
+
+    public Mp4RecordingSink(File file, VideoCodec codec, int width, int height) {
+        this.file = file;
+        this.codec = codec;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public void writePacket(long ptsAndFlags, byte[] data, int length, long arrivalNanos) throws IOException {
+        if (FrameHeader.isConfig(ptsAndFlags)) {
+            if (config != null && Arrays.equals(config, Arrays.copyOf(data, length))) {
+                return;
+            }
+            config = Arrays.copyOf(data, length);
+            startSegment();
+            return;
+        }
+        if (track < 0) {
+            return;
+        }
+        // Pool buffers are reused, so one wrapper per backing array avoids a per-frame allocation.
+        if (wrappedArray != data) {
+            wrappedArray = data;
+            wrapped = ByteBuffer.wrap(data);
+        }
+        wrapped.limit(length).position(0);
+        int flags = FrameHeader.isKeyFrame(ptsAndFlags) ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+        info.set(0, length, FrameHeader.ptsUs(ptsAndFlags), flags);
+        try {
+            muxer.writeSampleData(track, wrapped, info);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("MP4 write failed: " + e.getMessage(), e);
+        }
+    }
+
+    private void startSegment() throws IOException {
+        finishSegment();
+        ByteBuffer[] csd = codec.extractCsd(config, config.length);
+        if (csd == null) {
+            throw new IOException("Config packet has no parameter sets");
+        }
+        SequenceParameterSet sps = SpsParser.parse(codec, config, config.length);
+        MediaFormat format = DecoderFormats.create(codec, width, height, sps, csd);
+        File output = segment == 0 ? file : segmentFile(segment);
+        segment++;
+        muxer = new MediaMuxer(output.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        try {
+            track = muxer.addTrack(format);
+            muxer.start();
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            muxer.release();
+            muxer = null;
+            track = -1;
+            throw new IOException("Cannot mux " + codec.mimeType + " into MP4: " + e.getMessage(), e);
+        }
+    }
+
+    private File segmentFile(int index) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        return new File(file.getParentFile(), base + "-" + index + extension);
+    }
+
+    private void finishSegment() {
+        if (muxer == null) {
+            return;
+        }
+        try {
+            muxer.stop();
+        } catch (IllegalStateException ignored) {
+            // No sample was written; the file is empty anyway.
+        }
+        muxer.release();
+        muxer = null;
+        track = -1;
+    }
+
+    @Override
+    public void close() {
+        finishSegment();
+    }
+}
@@ -3,6 +3,12 @@ package com.example.scrcpyandroidfullproto;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 
+import com.example.scrcpy.proto.ControlMessageEncoder;
+import com.example.scrcpy.proto.ControlMessageRing;
+import com.example.scrcpy.proto.MetricsRegistry;
+import com.example.scrcpy.proto.RoundTripTracker;
+
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
@@ -11,8 +17,7 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayDeque;
-import java.util.Iterator;
+import java.util.Locale;
 import java.util.concurrent.atomic.AtomicLong;
 
 public final class ScrcpyControlClient {
@@ -20,42 +25,184 @@ public final class ScrcpyControlClient {
         void onStatus(String text);
         void onError(String text, Throwable throwable);
         void onClipboardText(String text);
+
+        /**
+         * Called on the writer thread when the control round trip crosses the alert threshold
+         * ({@code high}) and when it falls back below the clear threshold.
+         */
+        void onRoundTripAlert(boolean high, long roundTripNanos);
     }
 
-    private static final int TYPE_INJECT_KEYCODE = 0;
-    private static final int TYPE_INJECT_TOUCH_EVENT = 2;
-    private static final int TYPE_GET_CLIPBOARD = 8;
-    private static final int TYPE_SET_CLIPBOARD = 9;
     private static final int DEVICE_MSG_TYPE_CLIPBOARD = 0;
     private static final int DEVICE_MSG_TYPE_ACK_CLIPBOARD = 1;
     private static final int DEVICE_MSG_TYPE_UHID_OUTPUT = 2;
-    private static final int COPY_KEY_NONE = 0;
-    private static final int MAX_CLIPBOARD_TEXT_BYTES = (1 << 18) - 14;
     private static final int MAX_DEVICE_MESSAGE_SIZE = 1 << 18;
     private static final int CONNECT_RETRIES = 20;
-    private static final int MAX_QUEUE_SIZE = 120;
+    /** Share of the touch lane MOVEs may fill; the rest stays free for DOWN/UP. */
+    private static final double MOVE_SHARE = 0.75;
+    private static final int MAX_BATCH_BYTES = 16 * 1024;
+    /** Bulk payloads go out in writes of at most this many bytes. */
+    private static final int BULK_CHUNK_BYTES = 16 * 1024;
+    private static final int WRITE_BUFFER_BYTES = 2 * MAX_BATCH_BYTES;
+    private static final long AWAIT_NANOS = 100_000_000L;
+    private static final long ACK_TIMEOUT_NANOS = 10_000_000_000L;
+    private static final int RTT_WINDOW = 8;
+    /** Round trips older than this no longer hold up or clear an alert. */
+    private static final long RTT_SAMPLE_MAX_AGE_NANOS = 60_000_000_000L;
+    private static final long RTT_ALERT_NANOS = 150_000_000L;
+    private static final long RTT_CLEAR_NANOS = 100_000_000L;
+    /** How often the device clipboard is polled; each poll is also a round-trip probe. */
+    private static final long PROBE_INTERVAL_NANOS = 1_000_000_000L;
+    /** The server does not answer a poll while the device clipboard is empty. */
+    private static final long PROBE_TIMEOUT_NANOS = 2_000_000_000L;
+
+    public static final String METRIC_QUEUE_DEPTH = "control.queue_depth";
+    public static final String METRIC_MESSAGES = "control.messages";
+    public static final String METRIC_BYTES = "control.bytes";
+    public static final String METRIC_DROPPED_MOVES = "control.dropped.move";
+    /** MOVE events left out because a newer MOVE of the same pointer went in the same batch or replaced them. */
+    public static final String METRIC_COALESCED_MOVES = "control.coalesced.move";
+    /** Socket flushes; {@code control.messages} divided by this is the mean batch size. */
+    public static final String METRIC_BATCHES = "control.batches";
+    public static final String METRIC_LAST_BATCH_SIZE = "control.last_batch_size";
+    /** Round trips of clipboard polls and acknowledged clipboard sets. */
+    public static final String METRIC_RTT = "control.rtt";
+    /** Median of the last few round trips. */
+    public static final String METRIC_RTT_RECENT = "control.rtt.recent_median_ns";
+    public static final String METRIC_RTT_TIMEOUTS = "control.rtt.timeouts";
+    /** Followed by the lowercase lane name and {@code .depth} or {@code .rejected}. */
+    public static final String METRIC_LANE_PREFIX = "control.lane.";
+
+    /**
+     * Control lanes, in the order the writer serves them on each wakeup. Each has its own ring of
+     * configurable capacity; a message is rejected (and counted) when its lane is full.
+     */
+    public enum Lane {
+        /** Key events, text and small requests (panels, rotation, display power, video reset). */
+        URGENT,
+        /**
+         * All touch and scroll events, in order, so a DOWN or UP never overtakes its own MOVEs. MOVEs fill at
+         * most {@code MOVE_SHARE} of it and are dropped beyond that ({@code control.dropped.move}).
+         */
+        TOUCH,
+        /** Clipboard sets, one per wakeup, written in {@code BULK_CHUNK_BYTES} pieces. */
+        BULK;
+
+        public String metric(String suffix) {
+            return METRIC_LANE_PREFIX + name().toLowerCase(Locale.US) + "." + suffix;
+        }
+    }
+
+    public static final class LaneCapacities {
+        public static final LaneCapacities DEFAULT = new LaneCapacities(64, 128, 4);
+
+        public final int urgent;
+        public final int touch;
+        public final int bulk;
+
+        /**
+         * Each is rounded up to a power of two.
+         */
+        public LaneCapacities(int urgent, int touch, int bulk) {
+            this.urgent = urgent;
+            this.touch = touch;
+            this.bulk = bulk;
+        }
+    }
+
+    /**
+     * One ring per lane, indexed by {@link Lane#ordinal()}.
+     */
+    private static final class Lanes {
+        private final ControlMessageRing[] rings;
+
+        private Lanes(LaneCapacities capacities) {
+            rings = new ControlMessageRing[] {
+                    new ControlMessageRing(capacities.urgent, 0),
+                    new ControlMessageRing(capacities.touch, MOVE_SHARE),
+                    new ControlMessageRing(capacities.bulk, 0)
+            };
+        }
+
+        private ControlMessageRing get(Lane lane) {
+            return rings[lane.ordinal()];
+        }
+    }
+
+    /**
+     * Writes a message that takes no arguments.
+     */
+    private interface SimpleMessage {
+        int write(byte[] target, int offset);
+    }
 
     private final Listener listener;
-    private final Object queueLock = new Object();
-    private final ArrayDeque<QueuedMessage> queue = new ArrayDeque<>();
+    private final LaneCapacities capacities;
+    private final MetricsRegistry.Counter messagesSent;
+    private final MetricsRegistry.Counter bytesSent;
+    private final MetricsRegistry.Counter droppedMoves;
+    private final MetricsRegistry.Counter[] rejected = new MetricsRegistry.Counter[Lane.values().length];
+    private final MetricsRegistry.Counter coalescedMoves;
+    private final MetricsRegistry.Counter batches;
+    private final MetricsRegistry.SettableGauge lastBatchSize;
     private final AtomicLong clipboardSequence = new AtomicLong(1);
+    private final RoundTripTracker roundTrip = new RoundTripTracker(RTT_WINDOW);
+    /** Writer thread only. */
+    private boolean roundTripAlert;
+    /** Writer thread only. */
+    private long lastProbeNanos;
+    /** Writer thread only. */
+    private final byte[] probe = new byte[ControlMessageEncoder.GET_CLIPBOARD_LENGTH];
+    private volatile boolean probeRequested;
     private volatile boolean running;
     private volatile Socket socket;
     private volatile OutputStream output;
+    /** Lanes of the current connection; null while disconnected. */
+    private volatile Lanes lanes;
     private Thread worker;
 
-    private static final class QueuedMessage {
-        private final byte[] payload;
-        private final boolean droppable;
+    public ScrcpyControlClient(Listener listener) {
+        this(listener, new MetricsRegistry());
+    }
 
-        private QueuedMessage(byte[] payload, boolean droppable) {
-            this.payload = payload;
-            this.droppable = droppable;
-        }
+    public ScrcpyControlClient(Listener listener, MetricsRegistry metrics) {
+        this(listener, metrics, LaneCapacities.DEFAULT);
     }
 
-    public ScrcpyControlClient(Listener listener) {
+    /**
+     * Registers the control metrics ({@code METRIC_*}, per lane under {@code METRIC_LANE_PREFIX})
+     * in {@code metrics}.
+     */
+    public ScrcpyControlClient(Listener listener, MetricsRegistry metrics, LaneCapacities capacities) {
         this.listener = listener;
+        this.capacities = capacities;
+        metrics.gauge(METRIC_QUEUE_DEPTH, () -> {
+            Lanes current = lanes;
+            if (current == null) {
+                return 0;
+            }
+            long depth = 0;
+            for (ControlMessageRing ring : current.rings) {
+                depth += ring.size();
+            }
+            return depth;
+        });
+        for (Lane lane : Lane.values()) {
+            metrics.gauge(lane.metric("depth"), () -> {
+                Lanes current = lanes;
+                return current != null ? current.get(lane).size() : 0;
+            });
+            rejected[lane.ordinal()] = metrics.counter(lane.metric("rejected"));
+        }
+        metrics.histogram(METRIC_RTT, roundTrip.histogram());
+        metrics.gauge(METRIC_RTT_RECENT, roundTrip::recentMedianNanos);
+        metrics.gauge(METRIC_RTT_TIMEOUTS, roundTrip::timeouts);
+        messagesSent = metrics.counter(METRIC_MESSAGES);
+        bytesSent = metrics.counter(METRIC_BYTES);
+        droppedMoves = metrics.counter(METRIC_DROPPED_MOVES);
+        coalescedMoves = metrics.counter(METRIC_COALESCED_MOVES);
+        batches = metrics.counter(METRIC_BATCHES);
+        lastBatchSize = metrics.settableGauge(METRIC_LAST_BATCH_SIZE);
     }
 
     public synchronized void start(String host, int port) {
@@ -69,13 +216,10 @@ public final class ScrcpyControlClient {
         running = false;
         Thread currentWorker = worker;
         if (currentWorker != null) {
+            // Also wakes the writer parked on the lanes.
             currentWorker.interrupt();
             worker = null;
         }
-        synchronized (queueLock) {
-            queue.clear();
-            queueLock.notifyAll();
-        }
         closeSocket();
     }
 
@@ -84,107 +228,225 @@ public final class ScrcpyControlClient {
     }
 
     public void sendKeyPress(int keyCode) {
-        sendKeyEvent(KeyEvent.ACTION_DOWN, keyCode);
-        sendKeyEvent(KeyEvent.ACTION_UP, keyCode);
+        sendKeyEvent(KeyEvent.ACTION_DOWN, keyCode, 0, 0);
+        sendKeyEvent(KeyEvent.ACTION_UP, keyCode, 0, 0);
     }
 
-    public void sendKeyEvent(int action, int keyCode) {
-        byte[] payload = new byte[14];
-        payload[0] = (byte) TYPE_INJECT_KEYCODE;
-        payload[1] = (byte) action;
-        writeInt(payload, 2, keyCode);
-        writeInt(payload, 6, 0);  // repeat
-        writeInt(payload, 10, 0); // metastate
-        enqueue(payload, false);
+    /**
+     * {@code metaState} as in {@link KeyEvent#getMetaState()}: modifiers held, so shortcuts such as
+     * Ctrl+A or Shift+arrow act as such on the device.
+     */
+    public void sendKeyEvent(int action, int keyCode, int repeat, int metaState) {
+        ControlMessageRing target = lane(Lane.URGENT);
+        long position = claim(target, Lane.URGENT);
+        if (position < 0) {
+            return;
+        }
+        int length = ControlMessageEncoder.writeInjectKeycode(target.slot(position), 0, action, keyCode,
+                repeat, metaState);
+        target.publish(position, length, ControlMessageRing.KIND_OTHER, 0);
     }
 
+    /**
+     * Encodes straight into a ring slot: no allocation and no lock on the input path. A pointer's
+     * events must all come from one thread (the UI thread) to stay in order.
+     */
     public void sendTouchEvent(int action, long pointerId, int x, int y,
                                int screenWidth, int screenHeight, float pressure) {
-        int clampedWidth = clampToU16(screenWidth);
-        int clampedHeight = clampToU16(screenHeight);
-        int clampedX = Math.max(0, Math.min(x, Math.max(0, screenWidth - 1)));
-        int clampedY = Math.max(0, Math.min(y, Math.max(0, screenHeight - 1)));
+        boolean move = action == MotionEvent.ACTION_MOVE;
+        ControlMessageRing target = lane(Lane.TOUCH);
+        if (target == null || !running) {
+            return;
+        }
+        long position = target.claimTouch(pointerId, move);
+        int latest = -1;
+        if (position < 0) {
+            if (!move) {
+                rejected[Lane.TOUCH.ordinal()].increment();
+                return;
+            }
+            // Past the MOVE share: hold this position in place of the pointer's older one.
+            latest = target.claimLatest(pointerId);
+            if (latest < 0) {
+                droppedMoves.increment();
+                return;
+            }
+        }
+        byte[] buffer = latest >= 0 ? target.latestSlot(latest) : target.slot(position);
         float normalizedPressure = action == MotionEvent.ACTION_UP ? 0f : pressure;
+        int length = ControlMessageEncoder.writeInjectTouchEvent(buffer, 0, action, pointerId,
+                x, y, screenWidth, screenHeight, normalizedPressure, 0, 0);
+        if (latest >= 0) {
+            target.publishLatest(latest, length);
+        } else {
+            target.publish(position, length,
+                    move ? ControlMessageRing.KIND_TOUCH_MOVE : ControlMessageRing.KIND_TOUCH, pointerId);
+        }
+    }
+
+    /**
+     * Types {@code text} on the device: one INJECT_TEXT message per
+     * {@code MAX_INJECT_TEXT_BYTES} rather than a key press per character.
+     */
+    public void sendText(String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        int offset = 0;
+        while (offset < raw.length) {
+            int length = Math.min(raw.length - offset, ControlMessageEncoder.MAX_INJECT_TEXT_BYTES);
+            // Split between characters, never inside a UTF-8 sequence.
+            while (offset + length < raw.length && (raw[offset + length] & 0xC0) == 0x80) {
+                length--;
+            }
+            if (!publishText(raw, offset, length)) {
+                return;
+            }
+            offset += length;
+        }
+    }
+
+    private boolean publishText(byte[] raw, int offset, int length) {
+        ControlMessageRing target = lane(Lane.URGENT);
+        long position = claim(target, Lane.URGENT);
+        if (position < 0) {
+            return false;
+        }
+        int size = ControlMessageEncoder.INJECT_TEXT_HEADER_LENGTH + length;
+        if (size <= ControlMessageRing.SLOT_BYTES) {
+            ControlMessageEncoder.writeInjectText(target.slot(position), 0, raw, offset, length);
+            target.publish(position, size, ControlMessageRing.KIND_OTHER, 0);
+        } else {
+            byte[] payload = new byte[size];
+            ControlMessageEncoder.writeInjectText(payload, 0, raw, offset, length);
+            target.publishLarge(position, payload);
+        }
+        return true;
+    }
 
-        byte[] payload = new byte[32];
-        payload[0] = (byte) TYPE_INJECT_TOUCH_EVENT;
-        payload[1] = (byte) action;
-        writeLong(payload, 2, pointerId);
-        writeInt(payload, 10, clampedX);
-        writeInt(payload, 14, clampedY);
-        writeShort(payload, 18, clampedWidth);
-        writeShort(payload, 20, clampedHeight);
-        writeShort(payload, 22, encodeU16FixedPoint(normalizedPressure));
-        writeInt(payload, 24, 0); // actionButton
-        writeInt(payload, 28, 0); // buttons
+    /**
+     * Deltas in notches, as read from {@code MotionEvent.AXIS_HSCROLL} and {@code AXIS_VSCROLL}.
+     * Goes through the touch lane, in order with the touch events around it.
+     */
+    public void sendScrollEvent(int x, int y, int screenWidth, int screenHeight,
+                                float hscroll, float vscroll, int buttons) {
+        ControlMessageRing target = lane(Lane.TOUCH);
+        long position = claim(target, Lane.TOUCH);
+        if (position < 0) {
+            return;
+        }
+        int length = ControlMessageEncoder.writeInjectScrollEvent(target.slot(position), 0, x, y,
+                screenWidth, screenHeight, hscroll, vscroll, buttons);
+        target.publish(position, length, ControlMessageRing.KIND_OTHER, 0);
+    }
 
-        enqueue(payload, action == MotionEvent.ACTION_MOVE);
+    /**
+     * Back if the device screen is on, otherwise wakes it: a press sends both actions.
+     */
+    public void sendBackOrScreenOn(int action) {
+        ControlMessageRing target = lane(Lane.URGENT);
+        long position = claim(target, Lane.URGENT);
+        if (position < 0) {
+            return;
+        }
+        int length = ControlMessageEncoder.writeBackOrScreenOn(target.slot(position), 0, action);
+        target.publish(position, length, ControlMessageRing.KIND_OTHER, 0);
     }
 
+    public void expandNotificationPanel() {
+        sendUrgent(ControlMessageEncoder::writeExpandNotificationPanel);
+    }
+
+    public void expandSettingsPanel() {
+        sendUrgent(ControlMessageEncoder::writeExpandSettingsPanel);
+    }
+
+    public void collapsePanels() {
+        sendUrgent(ControlMessageEncoder::writeCollapsePanels);
+    }
+
+    public void rotateDevice() {
+        sendUrgent(ControlMessageEncoder::writeRotateDevice);
+    }
+
+    /**
+     * Turns the device display off while mirroring continues, or back on.
+     */
+    public void setDisplayPower(boolean on) {
+        ControlMessageRing target = lane(Lane.URGENT);
+        long position = claim(target, Lane.URGENT);
+        if (position < 0) {
+            return;
+        }
+        int length = ControlMessageEncoder.writeSetDisplayPower(target.slot(position), 0, on);
+        target.publish(position, length, ControlMessageRing.KIND_OTHER, 0);
+    }
+
+    /**
+     * Goes through the bulk lane: key and touch input queued later may reach the device first.
+     */
     public void setDeviceClipboard(String text, boolean paste) {
         if (text == null) {
             return;
         }
+        ControlMessageRing target = lane(Lane.BULK);
+        if (target == null || !running) {
+            return;
+        }
         byte[] raw = text.getBytes(StandardCharsets.UTF_8);
-        int textLength = Math.min(raw.length, MAX_CLIPBOARD_TEXT_BYTES);
-        byte[] payload = new byte[14 + textLength];
-        payload[0] = (byte) TYPE_SET_CLIPBOARD;
+        int textLength = Math.min(raw.length, ControlMessageEncoder.MAX_CLIPBOARD_TEXT_BYTES);
+        byte[] payload = new byte[ControlMessageEncoder.SET_CLIPBOARD_HEADER_LENGTH + textLength];
         long sequence = clipboardSequence.getAndIncrement();
-        writeLong(payload, 1, sequence);
-        payload[9] = (byte) (paste ? 1 : 0);
-        writeInt(payload, 10, textLength);
-        if (textLength > 0) {
-            System.arraycopy(raw, 0, payload, 14, textLength);
+        ControlMessageEncoder.writeSetClipboard(payload, 0, sequence, paste, raw, textLength);
+        long position = claim(target, Lane.BULK);
+        if (position >= 0) {
+            target.publishLarge(position, payload);
         }
-        enqueue(payload, false);
     }
 
+    /**
+     * Polls the device clipboard now rather than at the next interval. Changed text arrives
+     * through {@link Listener#onClipboardText}.
+     */
     public void requestDeviceClipboard() {
-        byte[] payload = new byte[2];
-        payload[0] = (byte) TYPE_GET_CLIPBOARD;
-        payload[1] = (byte) COPY_KEY_NONE;
-        enqueue(payload, false);
+        probeRequested = true;
     }
 
-    private void enqueue(byte[] payload, boolean droppable) {
-        synchronized (queueLock) {
-            if (!running || output == null) {
-                return;
-            }
-            if (queue.size() >= MAX_QUEUE_SIZE) {
-                if (droppable) {
-                    return;
-                }
-                if (!dropOldestDroppableLocked()) {
-                    return;
-                }
-            }
-            queue.addLast(new QueuedMessage(payload, droppable));
-            queueLock.notifyAll();
-        }
+    /**
+     * Asks the server for a fresh config packet and key frame, e.g. after the video was suspended.
+     */
+    public void requestVideoReset() {
+        sendUrgent(ControlMessageEncoder::writeResetVideo);
     }
 
-    private boolean dropOldestDroppableLocked() {
-        Iterator<QueuedMessage> iterator = queue.iterator();
-        while (iterator.hasNext()) {
-            if (iterator.next().droppable) {
-                iterator.remove();
-                return true;
-            }
+    private void sendUrgent(SimpleMessage message) {
+        ControlMessageRing target = lane(Lane.URGENT);
+        long position = claim(target, Lane.URGENT);
+        if (position < 0) {
+            return;
         }
-        return false;
+        int length = message.write(target.slot(position), 0);
+        target.publish(position, length, ControlMessageRing.KIND_OTHER, 0);
     }
 
-    private QueuedMessage takeNextMessage() throws InterruptedException {
-        synchronized (queueLock) {
-            while (running && queue.isEmpty()) {
-                queueLock.wait();
-            }
-            if (!running || queue.isEmpty()) {
-                return null;
-            }
-            return queue.removeFirst();
+    private ControlMessageRing lane(Lane lane) {
+        Lanes current = lanes;
+        return current != null ? current.get(lane) : null;
+    }
+
+    /**
+     * Claims a slot in {@code target}, or returns -1 (counting the drop) if disconnected or full.
+     */
+    private long claim(ControlMessageRing target, Lane lane) {
+        if (target == null || !running) {
+            return -1;
         }
+        long position = target.claim(false);
+        if (position < 0) {
+            rejected[lane.ordinal()].increment();
+        }
+        return position;
     }
 
     private void runLoop(String host, int port) {
@@ -197,23 +459,44 @@ public final class ScrcpyControlClient {
             localSocket.setTcpNoDelay(true);
             localInput = localSocket.getInputStream();
             localOutput = localSocket.getOutputStream();
-            synchronized (queueLock) {
-                socket = localSocket;
-                output = localOutput;
-                queue.clear();
-            }
+            // Fresh lanes per connection: nothing from an earlier session is replayed.
+            Lanes localLanes = new Lanes(capacities);
+            roundTrip.reset();
+            roundTripAlert = false;
+            lastProbeNanos = System.nanoTime() - PROBE_INTERVAL_NANOS;
+            socket = localSocket;
+            output = localOutput;
+            lanes = localLanes;
             InputStream finalLocalInput = localInput;
             readerThread = new Thread(() -> readDeviceMessages(finalLocalInput), "scrcpy-control-reader");
             readerThread.start();
             listener.onStatus("Control channel connected");
 
+            OutputStream buffered = new BufferedOutputStream(localOutput, WRITE_BUFFER_BYTES);
+            ControlMessageRing urgent = localLanes.get(Lane.URGENT);
+            ControlMessageRing touch = localLanes.get(Lane.TOUCH);
+            ControlMessageRing bulk = localLanes.get(Lane.BULK);
             while (running && !Thread.currentThread().isInterrupted()) {
-                QueuedMessage message = takeNextMessage();
-                if (message == null) {
+                boolean ready = ControlMessageRing.awaitAny(AWAIT_NANOS, localLanes.rings);
+                updateRoundTripAlert();
+                int count = writeProbeIfDue(buffered);
+                if (ready) {
+                    // Urgent and touch batches share one flush, i.e. one segment.
+                    count += writeBatch(buffered, urgent) + writeBatch(buffered, touch);
+                }
+                if (count > 0) {
+                    buffered.flush();
+                    messagesSent.add(count);
+                    batches.increment();
+                    lastBatchSize.set(count);
+                }
+                if (!ready) {
                     continue;
                 }
-                localOutput.write(message.payload);
-                localOutput.flush();
+                byte[] payload = bulk.poll();
+                if (payload != null) {
+                    writeChunked(buffered, payload);
+                }
             }
         } catch (InterruptedException ignored) {
             Thread.currentThread().interrupt();
@@ -223,12 +506,9 @@ public final class ScrcpyControlClient {
             }
         } finally {
             running = false;
-            synchronized (queueLock) {
-                output = null;
-                socket = null;
-                queue.clear();
-                queueLock.notifyAll();
-            }
+            lanes = null;
+            output = null;
+            socket = null;
             if (localSocket != null) {
                 try {
                     localSocket.close();
@@ -246,8 +526,95 @@ public final class ScrcpyControlClient {
         }
     }
 
+    /**
+     * Drains {@code lane} into {@code output} without flushing; returns the messages written.
+     */
+    private int writeBatch(OutputStream output, ControlMessageRing lane) throws IOException {
+        int length = lane.drainBatch(MAX_BATCH_BYTES);
+        if (length > 0) {
+            output.write(lane.batch(), 0, length);
+            bytesSent.add(length);
+        }
+        coalescedMoves.add(lane.batchCoalesced());
+        return lane.batchMessages();
+    }
+
+    /**
+     * Writes a clipboard poll without flushing if one is due and none is waiting for its reply;
+     * returns the messages written. Only one poll is in flight, so a reply arriving after its poll
+     * was given up on cannot be matched to the next one unless the link is slower than
+     * {@link #PROBE_TIMEOUT_NANOS}.
+     */
+    private int writeProbeIfDue(OutputStream output) throws IOException {
+        long now = System.nanoTime();
+        if (roundTrip.pendingProbes(now, PROBE_TIMEOUT_NANOS) > 0
+                || (!probeRequested && now - lastProbeNanos < PROBE_INTERVAL_NANOS)) {
+            return 0;
+        }
+        probeRequested = false;
+        lastProbeNanos = now;
+        int length = ControlMessageEncoder.writeGetClipboard(probe, 0, ControlMessageEncoder.COPY_KEY_NONE);
+        // Recorded before the write for the same reason as a clipboard set's.
+        roundTrip.probeSent(now);
+        output.write(probe, 0, length);
+        bytesSent.add(length);
+        return 1;
+    }
+
+    /**
+     * The protocol has no framing to interleave other messages inside this one, so chunking only
+     * bounds each write; it also lets a stop interrupt a large payload between chunks.
+     */
+    private void writeChunked(OutputStream output, byte[] payload) throws IOException {
+        // Every clipboard set asks for an ACK: a free round-trip sample. Recorded before the first
+        // byte goes out, as on a fast link the ACK can arrive before the last flush returns.
+        long sequence = ControlMessageEncoder.readSetClipboardSequence(payload, 0);
+        roundTrip.sent(sequence, System.nanoTime());
+        boolean written = false;
+        try {
+            for (int offset = 0; offset < payload.length; offset += BULK_CHUNK_BYTES) {
+                if (!running) {
+                    return;
+                }
+                output.write(payload, offset, Math.min(BULK_CHUNK_BYTES, payload.length - offset));
+                output.flush();
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                roundTrip.cancel(sequence);
+            }
+        }
+        messagesSent.increment();
+        bytesSent.add(payload.length);
+        batches.increment();
+        lastBatchSize.set(1);
+    }
+
+    /**
+     * Raises or clears the round-trip alert. Samples come from the clipboard polls, which the
+     * server answers because it runs with clipboard autosync off, and from the ACKs of clipboard
+     * sets. A poll still waiting does not count as a stall: the server leaves it unanswered while
+     * the device clipboard is empty. Without a recent sample or a pending ACK the alert clears.
+     */
+    private void updateRoundTripAlert() {
+        long now = System.nanoTime();
+        long pending = roundTrip.oldestPendingNanos(now, ACK_TIMEOUT_NANOS);
+        // A message still unacknowledged is at least that slow: a stall raises the alert too.
+        long current = Math.max(roundTrip.recentMedianNanos(now, RTT_SAMPLE_MAX_AGE_NANOS), pending);
+        if (!roundTripAlert && current >= RTT_ALERT_NANOS) {
+            roundTripAlert = true;
+            listener.onRoundTripAlert(true, current);
+        } else if (roundTripAlert && current < RTT_CLEAR_NANOS) {
+            roundTripAlert = false;
+            listener.onRoundTripAlert(false, current);
+        }
+    }
+
     private void readDeviceMessages(InputStream input) {
         DataInputStream dis = new DataInputStream(input);
+        // The polls keep repeating the device clipboard; only changes are passed on.
+        String lastClipboardText = null;
         try {
             while (running && !Thread.currentThread().isInterrupted()) {
                 int type = dis.read();
@@ -262,10 +629,15 @@ public final class ScrcpyControlClient {
                         }
                         byte[] data = new byte[len];
                         dis.readFully(data);
-                        listener.onClipboardText(new String(data, StandardCharsets.UTF_8));
+                        roundTrip.probeAnswered(System.nanoTime());
+                        String text = new String(data, StandardCharsets.UTF_8);
+                        if (!text.equals(lastClipboardText)) {
+                            lastClipboardText = text;
+                            listener.onClipboardText(text);
+                        }
                         break;
                     case DEVICE_MSG_TYPE_ACK_CLIPBOARD:
-                        dis.readLong();
+                        roundTrip.acked(dis.readLong(), System.nanoTime());
                         break;
                     case DEVICE_MSG_TYPE_UHID_OUTPUT:
                         dis.readUnsignedShort();
@@ -313,6 +685,7 @@ public final class ScrcpyControlClient {
         Socket current = socket;
         socket = null;
         output = null;
+        lanes = null;
         if (current != null) {
             try {
                 current.close();
@@ -321,41 +694,6 @@ public final class ScrcpyControlClient {
         }
     }
 
-    private static int clampToU16(int value) {
-        if (value < 0) {
-            return 0;
-        }
-        return Math.min(value, 0xFFFF);
-    }
-
-    private static int encodeU16FixedPoint(float value) {
-        float clamped = Math.max(0f, Math.min(1f, value));
-        return Math.round(clamped * 65535f);
-    }
-
-    private static void writeInt(byte[] target, int offset, int value) {
-        target[offset] = (byte) ((value >>> 24) & 0xFF);
-        target[offset + 1] = (byte) ((value >>> 16) & 0xFF);
-        target[offset + 2] = (byte) ((value >>> 8) & 0xFF);
-        target[offset + 3] = (byte) (value & 0xFF);
-    }
-
-    private static void writeLong(byte[] target, int offset, long value) {
-        target[offset] = (byte) ((value >>> 56) & 0xFF);
-        target[offset + 1] = (byte) ((value >>> 48) & 0xFF);
-        target[offset + 2] = (byte) ((value >>> 40) & 0xFF);
-        target[offset + 3] = (byte) ((value >>> 32) & 0xFF);
-        target[offset + 4] = (byte) ((value >>> 24) & 0xFF);
-        target[offset + 5] = (byte) ((value >>> 16) & 0xFF);
-        target[offset + 6] = (byte) ((value >>> 8) & 0xFF);
-        target[offset + 7] = (byte) (value & 0xFF);
-    }
-
-    private static void writeShort(byte[] target, int offset, int value) {
-        target[offset] = (byte) ((value >>> 8) & 0xFF);
-        target[offset + 1] = (byte) (value & 0xFF);
-    }
-
     private static String safeMessage(Throwable throwable) {
         if (throwable == null) {
             return "unknown";
@@ -1,20 +1,64 @@
 package com.example.scrcpyandroidfullproto;
 
 import android.media.MediaCodec;
-import android.media.MediaFormat;
+import android.media.MediaCodecInfo;
 import android.view.Surface;
 
+import com.example.scrcpy.proto.CaptureReplay;
+import com.example.scrcpy.proto.CaptureWriter;
+import com.example.scrcpy.proto.ChannelVideoStreamReader;
+import com.example.scrcpy.proto.DecodeQueue;
+import com.example.scrcpy.proto.ElementaryStreamSink;
+import com.example.scrcpy.proto.FrameHeader;
+import com.example.scrcpy.proto.LatencyHistogram;
+import com.example.scrcpy.proto.MetricsRegistry;
+import com.example.scrcpy.proto.PacketPool;
+import com.example.scrcpy.proto.PipelineLatency;
+import com.example.scrcpy.proto.PooledPacket;
 import com.example.scrcpy.proto.ScrcpyVideoStreamReader;
+import com.example.scrcpy.proto.StreamRecorder;
+import com.example.scrcpy.proto.VideoCodec;
 import com.example.scrcpy.proto.VideoCodecMetadata;
+import com.example.scrcpy.proto.VideoStreamReader;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.EOFException;
 import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
 import java.net.Socket;
-import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
 
 public final class ScrcpyVideoClient {
+    public enum RecordingFormat {
+        /** Playable MP4, muxed without re-encoding. */
+        MP4,
+        /** Raw Annex-B/OBU stream plus a packet index. */
+        ELEMENTARY_STREAM,
+        /** Socket bytes with arrival times, replayable through {@link CaptureReplay}. */
+        CAPTURE
+    }
+
+    public enum DecoderMode {
+        /** Polls {@code dequeueInputBuffer}/{@code dequeueOutputBuffer} on a decoder thread. */
+        SYNC,
+        /** {@code MediaCodec.setCallback} on a handler thread; API 23+, otherwise {@link #SYNC}. */
+        ASYNC
+    }
+
+    public enum FramePacing {
+        /** Renders every frame as soon as it is decoded. */
+        IMMEDIATE,
+        /** Renders the newest decoded frame at each vsync and skips older ones. */
+        VSYNC,
+        /** As {@link #VSYNC}, delaying frames by the measured arrival jitter (up to 50 ms). */
+        VSYNC_JITTER_BUFFER
+    }
+
     public interface Listener {
         void onStatus(String text);
         void onError(String text, Throwable throwable);
@@ -22,34 +66,235 @@ public final class ScrcpyVideoClient {
         void onVideoSocketConnected();
     }
 
+    public static final String METRIC_PACKETS = "video.packets";
+    public static final String METRIC_BYTES = "video.bytes";
+    public static final String METRIC_QUEUE_DEPTH = "video.queue_depth";
+    public static final String METRIC_READER_STALLS = "video.reader_stalls";
+    public static final String METRIC_DROPPED_NON_REFERENCE = "video.dropped.non_reference";
+    public static final String METRIC_DROPPED_TO_KEY_FRAME = "video.dropped.to_key_frame";
+    public static final String METRIC_DROPPED_RENDER = "video.dropped.render_skipped";
+    /** Prefix of the per-stage latency histograms, e.g. {@code latency.decode}. */
+    public static final String METRIC_LATENCY_PREFIX = "latency.";
+
     private final Listener listener;
+    private final MetricsRegistry.Counter packetsReceived;
+    private final MetricsRegistry.Counter bytesReceived;
     private Thread worker;
     private volatile boolean running;
     private static final int STREAM_READ_TIMEOUT_MS = 45000;
+    private static final int FRAME_HEADER_SIZE = 12;
+    private static final int DECODE_QUEUE_CAPACITY = 64;
+    // About six frames at 60 fps; older non-reference frames are dropped rather than decoded late.
+    private static final long DECODE_LATENCY_BUDGET_NANOS = 100_000_000L;
+    private final PacketPool packetPool = new PacketPool(DECODE_QUEUE_CAPACITY / 8);
+    private volatile DecodeQueue decodeQueue;
+    private final PipelineLatency latency = new PipelineLatency();
+    private volatile VideoDecodeEngine decodeEngine;
+    private volatile boolean channelReaderEnabled;
+    private volatile int receiveBufferSize;
+    private volatile File recordingDirectory;
+    private volatile RecordingFormat recordingFormat = RecordingFormat.MP4;
+    private volatile DecoderMode decoderMode = DecoderMode.ASYNC;
+    private volatile FramePacing framePacing = FramePacing.VSYNC;
+    private volatile File tuningCacheFile;
+    private static final long PARK_TIMEOUT_MS = 500;
+    private final Object warmLock = new Object();
+    /** Decoder of the last session, flushed but configured; guarded by warmLock. */
+    private WarmDecoder warmDecoder;
+    /** Bumped by {@link #releaseDecoder}, so decoders opened before it are not parked; warmLock. */
+    private int warmGeneration;
+    private volatile Session session;
 
     public ScrcpyVideoClient(Listener listener) {
+        this(listener, new MetricsRegistry());
+    }
+
+    /**
+     * Registers the video metrics ({@code METRIC_*}) in {@code metrics}. Per-session values
+     * (queue depth, drops) read as 0 between sessions.
+     */
+    public ScrcpyVideoClient(Listener listener, MetricsRegistry metrics) {
         this.listener = listener;
+        packetsReceived = metrics.counter(METRIC_PACKETS);
+        bytesReceived = metrics.counter(METRIC_BYTES);
+        metrics.gauge(METRIC_QUEUE_DEPTH, () -> {
+            DecodeQueue queue = decodeQueue;
+            return queue != null ? queue.size() : 0;
+        });
+        metrics.gauge(METRIC_READER_STALLS, () -> {
+            DecodeQueue queue = decodeQueue;
+            return queue != null ? queue.readerStalls() : 0;
+        });
+        metrics.gauge(METRIC_DROPPED_NON_REFERENCE, this::droppedNonReferenceFrames);
+        metrics.gauge(METRIC_DROPPED_TO_KEY_FRAME, this::droppedFramesToKeyFrame);
+        metrics.gauge(METRIC_DROPPED_RENDER, this::skippedRenderFrames);
+        for (PipelineLatency.Stage stage : PipelineLatency.Stage.values()) {
+            metrics.histogram(METRIC_LATENCY_PREFIX + stage.name().toLowerCase(Locale.US), latency.histogram(stage));
+        }
+    }
+
+    /**
+     * Selects the NIO {@link ChannelVideoStreamReader} instead of the stream reader. A positive
+     * {@code receiveBufferSize} also sizes the socket receive buffer. Applies to the next start.
+     */
+    public void setChannelReader(boolean enabled, int receiveBufferSize) {
+        channelReaderEnabled = enabled;
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Selects the decode engine. Applies to the next start.
+     */
+    public void setDecoderMode(DecoderMode mode) {
+        decoderMode = mode;
+    }
+
+    /**
+     * Selects how decoded frames are released to the surface. Applies to the next start.
+     */
+    public void setFramePacing(FramePacing pacing) {
+        framePacing = pacing;
+    }
+
+    /**
+     * File in which per-decoder low-latency probe results are kept across sessions; null probes
+     * every session.
+     */
+    public void setDecoderTuningCache(File file) {
+        tuningCacheFile = file;
+    }
+
+    /**
+     * Records the encoded stream into {@code directory} (null stops). Takes effect on the running
+     * session at the next key frame.
+     */
+    public void setRecording(File directory, RecordingFormat format) {
+        recordingFormat = format;
+        recordingDirectory = directory;
+    }
+
+    /**
+     * Non-reference frames dropped because the decoder was behind, in the current session.
+     */
+    public long droppedNonReferenceFrames() {
+        DecodeQueue queue = decodeQueue;
+        return queue != null ? queue.droppedNonReference() : 0;
+    }
+
+    /**
+     * Frames dropped while skipping ahead to a queued key frame, in the current session.
+     */
+    public long droppedFramesToKeyFrame() {
+        DecodeQueue queue = decodeQueue;
+        return queue != null ? queue.droppedToKeyFrame() : 0;
+    }
+
+    /**
+     * Decoded frames the vsync pacer skipped for a newer one, in the current session.
+     */
+    public long skippedRenderFrames() {
+        VideoDecodeEngine engine = decodeEngine;
+        return engine != null ? engine.skippedRenderFrames() : 0;
+    }
+
+    /**
+     * Latency distribution of each pipeline stage since the last {@link #start} or
+     * {@link #resetLatency}.
+     */
+    public Map<PipelineLatency.Stage, LatencyHistogram.Snapshot> latencySnapshot() {
+        return latency.snapshot();
+    }
+
+    public void resetLatency() {
+        latency.reset();
     }
 
     public void start(String host, int port, Surface surface) {
         stop();
+        latency.reset();
         running = true;
-        worker = new Thread(() -> runLoop(host, port, surface), "scrcpy-video-client");
+        Session started = new Session(surface);
+        session = started;
+        worker = new Thread(() -> runLoop(host, port, started), "scrcpy-video-client");
         worker.start();
     }
 
+    /**
+     * Whether a started session is still connected.
+     */
+    public boolean isActive() {
+        Thread current = worker;
+        return running && current != null && current.isAlive();
+    }
+
+    /**
+     * Releases the decoder and stops decoding, but keeps the session connected and reading, so it
+     * can be resumed without reconnecting. Call when the surface is destroyed; returns once the
+     * surface is no longer used. Never waits for the reader: a decoder it is still opening is
+     * released by the reader itself before anything is queued to it.
+     */
+    public void suspend() {
+        Session current = session;
+        WarmDecoder released = null;
+        if (current != null) {
+            synchronized (current) {
+                current.suspended = true;
+                released = current.decoder;
+                current.decoder = null;
+            }
+        }
+        if (released != null) {
+            released.release();
+            listener.onStatus("Video suspended");
+        }
+        releaseDecoder();
+    }
+
+    /**
+     * Resumes a {@link #suspend suspended} session on {@code surface}. Decoding restarts from the
+     * next key frame; ask the server for one with {@link ScrcpyControlClient#requestVideoReset}.
+     */
+    public void resume(Surface surface) {
+        Session current = session;
+        if (current == null) {
+            return;
+        }
+        synchronized (current) {
+            current.surface = surface;
+            current.suspended = false;
+        }
+    }
+
+    /**
+     * Releases the decoder kept warm between sessions; call when the surface is destroyed. Sessions
+     * still running release theirs when they end instead of keeping it.
+     */
+    public void releaseDecoder() {
+        WarmDecoder released;
+        synchronized (warmLock) {
+            warmGeneration++;
+            released = warmDecoder;
+            warmDecoder = null;
+        }
+        if (released != null) {
+            released.release();
+        }
+    }
+
     public void stop() {
         running = false;
+        session = null;
         if (worker != null) {
             worker.interrupt();
             worker = null;
         }
     }
 
-    private void runLoop(String host, int port, Surface surface) {
+    private void runLoop(String host, int port, Session session) {
         final int maxSessionAttempts = 6;
         for (int attempt = 1; attempt <= maxSessionAttempts && running && !Thread.currentThread().isInterrupted(); attempt++) {
             Socket socket = null;
+            VideoStreamReader reader = null;
             String stage = "init";
             try {
                 stage = "connect";
@@ -58,67 +303,113 @@ public final class ScrcpyVideoClient {
                 listener.onStatus("Stream socket connected, waiting metadata...");
 
                 stage = "read_codec_metadata";
-                ScrcpyVideoStreamReader reader = new ScrcpyVideoStreamReader(socket.getInputStream());
+                reader = createReader(socket);
                 VideoCodecMetadata meta = reader.readCodecMetadata();
                 listener.onResolutionChanged(meta.width, meta.height);
-                listener.onStatus("Codec id=" + meta.codecId + " size=" + meta.width + "x" + meta.height);
+                VideoCodec codec = VideoCodec.fromId(meta.codecId);
+                if (codec == null) {
+                    throw new IOException("Unsupported codec id: 0x" + Integer.toHexString(meta.codecId));
+                }
+                listener.onStatus("Codec " + codec.serverName + " size=" + meta.width + "x" + meta.height);
 
-                stage = "create_decoder";
-                MediaCodec decoder = MediaCodec.createDecoderByType(MediaFormat.MIMETYPE_VIDEO_AVC);
+                StreamRecorder recorder = null;
+                LastConfig lastConfig = new LastConfig();
+                VideoDecodeEngine engine = null;
+                boolean decoderOpened = false;
+                boolean awaitingKeyFrame = false;
                 try {
-                    boolean configured = false;
                     while (running && !Thread.currentThread().isInterrupted()) {
+                        recorder = updateRecorder(recorder, codec, meta, lastConfig);
                         stage = "read_packet";
-                        ScrcpyVideoStreamReader.Packet packet = reader.readPacket();
-                        if (packet.header.config) {
-                            stage = "parse_avc_config";
-                            ByteBuffer[] csd = AvcConfigParser.extractCsd(packet.data);
-                            if (csd != null) {
-                                stage = "configure_decoder";
-                                MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, meta.width, meta.height);
-                                format.setByteBuffer("csd-0", csd[0]);
-                                format.setByteBuffer("csd-1", csd[1]);
-                                if (configured) {
-                                    decoder.stop();
+                        long ptsAndFlags = reader.readRawPacketHeader();
+                        PooledPacket packet = reader.readPacketBody(packetPool);
+                        packetsReceived.increment();
+                        bytesReceived.add(FRAME_HEADER_SIZE + packet.size());
+                        if (FrameHeader.isConfig(ptsAndFlags)) {
+                            lastConfig.set(packet);
+                        }
+                        if (recorder != null) {
+                            recorder.offer(packet);
+                        }
+                        // The session lock only guards the hand-off: suspend() runs on the UI thread and
+                        // must never wait behind a full decode queue or a decoder being created.
+                        WarmDecoder current;
+                        Surface surface;
+                        boolean suspended;
+                        synchronized (session) {
+                            current = session.decoder;
+                            surface = session.surface;
+                            suspended = session.suspended;
+                        }
+                        if (current == null) {
+                            if (suspended) {
+                                // Keep draining the socket so the server does not stall.
+                                packet.release();
+                                continue;
+                            }
+                            stage = "create_decoder";
+                            WarmDecoder opened = openDecoder(codec, meta, surface);
+                            synchronized (session) {
+                                if (!session.suspended && session.surface == surface) {
+                                    session.decoder = opened;
+                                    current = opened;
                                 }
-                                decoder.configure(format, surface, null, 0);
-                                decoder.start();
-                                configured = true;
-                                listener.onStatus("Decoder configured");
                             }
-                            continue;
-                        }
-
-                        if (!configured) {
-                            continue;
+                            if (current == null) {
+                                // Suspended while opening; nothing was queued, so nothing was drawn.
+                                opened.release();
+                                packet.release();
+                                continue;
+                            }
+                            engine = current.engine;
+                            if (decoderOpened) {
+                                // Resuming mid-stream: the new decoder needs the parameter sets
+                                // and can only start at a key frame.
+                                awaitingKeyFrame = true;
+                                if (!packet.isConfig() && lastConfig.data != null
+                                        && !engine.submit(lastConfig.toPacket(packetPool))) {
+                                    packet.release();
+                                    if (isDetached(session, current)) {
+                                        continue;
+                                    }
+                                    break;
+                                }
+                                listener.onStatus("Video resumed, waiting for a key frame");
+                            }
+                            decoderOpened = true;
                         }
-
-                        stage = "dequeue_input";
-                        int index = decoder.dequeueInputBuffer(10000);
-                        if (index >= 0) {
-                            stage = "queue_input";
-                            ByteBuffer inputBuffer = decoder.getInputBuffer(index);
-                            if (inputBuffer != null) {
-                                inputBuffer.clear();
-                                inputBuffer.put(packet.data);
-                                int flags = packet.header.keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
-                                decoder.queueInputBuffer(index, 0, packet.data.length, packet.header.ptsUs, flags);
+                        engine = current.engine;
+                        if (awaitingKeyFrame && !packet.isConfig()) {
+                            if (!packet.isKeyFrame()) {
+                                packet.release();
+                                continue;
                             }
+                            awaitingKeyFrame = false;
                         }
-
-                        stage = "dequeue_output";
-                        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-                        int outIndex = decoder.dequeueOutputBuffer(info, 0);
-                        if (outIndex >= 0) {
-                            decoder.releaseOutputBuffer(outIndex, true);
+                        stage = "queue_packet";
+                        if (!engine.submit(packet)) {
+                            if (isDetached(session, current)) {
+                                // suspend() released this decoder, closing its queue; keep reading.
+                                continue;
+                            }
+                            break;
                         }
                     }
                 } finally {
-                    try {
-                        decoder.stop();
-                    } catch (Exception ignored) {
+                    closeRecorder(recorder);
+                    WarmDecoder last;
+                    synchronized (session) {
+                        last = session.decoder;
+                        session.decoder = null;
                     }
-                    decoder.release();
+                    if (last != null && !parkWarmDecoder(last)) {
+                        last.release();
+                    }
+                }
+                Throwable failure = engine != null ? engine.failure : null;
+                if (failure != null) {
+                    stage = engine.stage;
+                    throw failure;
                 }
                 return;
             } catch (SocketTimeoutException e) {
@@ -138,6 +429,12 @@ public final class ScrcpyVideoClient {
                 listener.onError("Stream error at " + stage + " (" + t.getClass().getSimpleName() + "): " + safeMessage(t), t);
                 return;
             } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException ignored) {
+                    }
+                }
                 if (socket != null) {
                     try {
                         socket.close();
@@ -148,6 +445,265 @@ public final class ScrcpyVideoClient {
         }
     }
 
+    /**
+     * Whether {@link #suspend} took {@code decoder} away from {@code session}.
+     */
+    private static boolean isDetached(Session session, WarmDecoder decoder) {
+        synchronized (session) {
+            return session.decoder != decoder;
+        }
+    }
+
+    /**
+     * Starts or stops the session recorder to follow {@link #setRecording}. A new recorder gets the
+     * current config so it can start at the next key frame.
+     */
+    private StreamRecorder updateRecorder(StreamRecorder recorder, VideoCodec codec, VideoCodecMetadata meta,
+                                          LastConfig lastConfig) {
+        File directory = recordingDirectory;
+        if (directory == null) {
+            if (recorder != null) {
+                closeRecorder(recorder);
+            }
+            return null;
+        }
+        if (recorder != null) {
+            return recorder;
+        }
+        String name = "scrcpy-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        StreamRecorder.Sink sink;
+        try {
+            switch (recordingFormat) {
+                case ELEMENTARY_STREAM:
+                    String extension = codec == VideoCodec.AV1 ? ".obu" : codec == VideoCodec.H265 ? ".h265" : ".h264";
+                    sink = new ElementaryStreamSink(new File(directory, name + extension), new File(directory, name + ".idx"));
+                    break;
+                case CAPTURE:
+                    sink = new CaptureWriter(new File(directory, name + ".scap"), meta);
+                    break;
+                default:
+                    sink = new Mp4RecordingSink(new File(directory, name + ".mp4"), codec, meta.width, meta.height);
+                    break;
+            }
+        } catch (IOException e) {
+            recordingDirectory = null;
+            listener.onError("Recording failed: " + safeMessage(e), e);
+            return null;
+        }
+        StreamRecorder created = new StreamRecorder(sink, this::onRecordingFinished);
+        if (lastConfig.data != null) {
+            created.offer(lastConfig.ptsAndFlags, lastConfig.data, 0, lastConfig.length);
+        }
+        listener.onStatus("Recording " + name);
+        return created;
+    }
+
+    /**
+     * Does not wait for the queued packets to be written; {@link #onRecordingFinished} reports the
+     * outcome.
+     */
+    private void closeRecorder(StreamRecorder recorder) {
+        if (recorder != null) {
+            recorder.close();
+        }
+    }
+
+    /**
+     * Runs on the recorder's writer thread, possibly after the session has ended, so a failed
+     * recording is reported as a status rather than an error that would stop the stream.
+     */
+    private void onRecordingFinished(StreamRecorder recorder) {
+        IOException error = recorder.error();
+        if (error != null) {
+            listener.onStatus("Recording failed: " + safeMessage(error));
+            return;
+        }
+        listener.onStatus("Recording stopped: " + recorder.writtenPackets() + " packets, "
+                + recorder.droppedPackets() + " dropped in " + recorder.droppedGops() + " GOPs");
+    }
+
+    /**
+     * Returns the warm decoder if it fits, otherwise creates and starts a new one.
+     */
+    private WarmDecoder openDecoder(VideoCodec codec, VideoCodecMetadata meta, Surface surface) throws IOException {
+        int generation;
+        synchronized (warmLock) {
+            generation = warmGeneration;
+        }
+        WarmDecoder warm = takeWarmDecoder(codec, meta, surface);
+        if (warm != null) {
+            warm.engine.resume();
+            listener.onStatus("Reusing warm decoder");
+        } else {
+            MediaCodecInfo decoderInfo = findDecoder(codec);
+            MediaCodec decoder = MediaCodec.createByCodecName(decoderInfo.getName());
+            DecoderTuning tuning = new DecoderTuning(decoderInfo, codec, tuningCacheFile);
+            DecodeQueue queue = new DecodeQueue(codec, DECODE_QUEUE_CAPACITY, DECODE_LATENCY_BUDGET_NANOS);
+            VideoDecodeEngine engine = VideoDecodeEngine.create(decoderMode, decoder, tuning, framePacing,
+                    latency, codec, meta, surface, queue, listener);
+            warm = new WarmDecoder(decoder, queue, engine, codec, meta, surface, decoderMode, framePacing,
+                    generation);
+            engine.start();
+        }
+        decodeQueue = warm.queue;
+        decodeEngine = warm.engine;
+        return warm;
+    }
+
+    /**
+     * Takes the warm decoder if it fits this session; a warm decoder that does not is released.
+     */
+    private WarmDecoder takeWarmDecoder(VideoCodec codec, VideoCodecMetadata meta, Surface surface) {
+        WarmDecoder warm;
+        synchronized (warmLock) {
+            warm = warmDecoder;
+            warmDecoder = null;
+        }
+        if (warm == null) {
+            return null;
+        }
+        if (warm.engine.failure == null && warm.matches(codec, meta, surface, decoderMode, framePacing)
+                && surface.isValid()) {
+            return warm;
+        }
+        warm.release();
+        return null;
+    }
+
+    /**
+     * Parks the session's decoder for the next session unless it failed or {@link #releaseDecoder}
+     * was called since it was opened; returns false if the caller must release it.
+     */
+    private boolean parkWarmDecoder(WarmDecoder warm) {
+        synchronized (warmLock) {
+            if (warm.generation != warmGeneration) {
+                return false;
+            }
+        }
+        if (!warm.engine.park(PARK_TIMEOUT_MS)) {
+            return false;
+        }
+        WarmDecoder replaced;
+        synchronized (warmLock) {
+            if (warm.generation != warmGeneration) {
+                return false;
+            }
+            replaced = warmDecoder;
+            warmDecoder = warm;
+        }
+        if (replaced != null) {
+            replaced.release();
+        }
+        return true;
+    }
+
+    /**
+     * A session's decoder with its engine and queue, and what it was created for.
+     */
+    private static final class WarmDecoder {
+        final MediaCodec decoder;
+        final DecodeQueue queue;
+        final VideoDecodeEngine engine;
+        private final VideoCodec codec;
+        private final int width;
+        private final int height;
+        private final Surface surface;
+        private final DecoderMode mode;
+        private final FramePacing pacing;
+        final int generation;
+
+        WarmDecoder(MediaCodec decoder, DecodeQueue queue, VideoDecodeEngine engine, VideoCodec codec,
+                    VideoCodecMetadata meta, Surface surface, DecoderMode mode, FramePacing pacing,
+                    int generation) {
+            this.decoder = decoder;
+            this.queue = queue;
+            this.engine = engine;
+            this.codec = codec;
+            width = meta.width;
+            height = meta.height;
+            this.surface = surface;
+            this.mode = mode;
+            this.pacing = pacing;
+            this.generation = generation;
+        }
+
+        boolean matches(VideoCodec codec, VideoCodecMetadata meta, Surface surface, DecoderMode mode,
+                        FramePacing pacing) {
+            return this.codec == codec && width == meta.width && height == meta.height
+                    && this.surface == surface && this.mode == mode && this.pacing == pacing;
+        }
+
+        /**
+         * Closes the queue first, so a reader waiting to submit to this decoder is let go.
+         */
+        void release() {
+            queue.close();
+            engine.stop();
+            queue.clear();
+            try {
+                decoder.stop();
+            } catch (Exception ignored) {
+            }
+            decoder.release();
+        }
+    }
+
+    /**
+     * Surface and decoder of one {@link #start}ed session; {@link #suspend} and {@link #resume}
+     * act on the current one. Guarded by its own monitor.
+     */
+    private static final class Session {
+        Surface surface;
+        boolean suspended;
+        WarmDecoder decoder;
+
+        Session(Surface surface) {
+            this.surface = surface;
+        }
+    }
+
+    /**
+     * Latest config packet of a session, for recorders started mid-stream and decoders resumed
+     * mid-stream.
+     */
+    private static final class LastConfig {
+        byte[] data;
+        int length;
+        long ptsAndFlags;
+
+        void set(PooledPacket config) {
+            if (data == null || data.length < config.size()) {
+                data = new byte[config.size()];
+            }
+            System.arraycopy(config.data(), 0, data, 0, config.size());
+            length = config.size();
+            ptsAndFlags = config.ptsAndFlags();
+        }
+
+        PooledPacket toPacket(PacketPool pool) {
+            PooledPacket packet = pool.acquire(ptsAndFlags, length);
+            System.arraycopy(data, 0, packet.data(), 0, length);
+            return packet;
+        }
+    }
+
+    private static MediaCodecInfo findDecoder(VideoCodec codec) throws IOException {
+        MediaCodecInfo info = DecoderSelector.findDecoder(codec.mimeType);
+        if (info == null) {
+            throw new IOException("No decoder for " + codec.mimeType);
+        }
+        return info;
+    }
+
+    private VideoStreamReader createReader(Socket socket) throws IOException {
+        SocketChannel channel = socket.getChannel();
+        if (channel != null) {
+            int bufferSize = Math.max(receiveBufferSize, ChannelVideoStreamReader.DEFAULT_BUFFER_SIZE);
+            return new ChannelVideoStreamReader(channel, bufferSize, STREAM_READ_TIMEOUT_MS);
+        }
+        return new ScrcpyVideoStreamReader(socket.getInputStream());
+    }
+
     private static boolean shouldRetry(String stage, int attempt, int maxAttempts) {
         if (attempt >= maxAttempts) {
             return false;
@@ -166,8 +722,13 @@ public final class ScrcpyVideoClient {
     private Socket connectWithRetry(String host, int port) throws Exception {
         Exception lastError = null;
         for (int i = 1; i <= 15 && running; i++) {
-            Socket socket = new Socket();
+            Socket socket = channelReaderEnabled ? SocketChannel.open().socket() : new Socket();
             try {
+                int bufferSize = receiveBufferSize;
+                if (bufferSize > 0) {
+                    // Must be set before connect so TCP can advertise a large enough window.
+                    socket.setReceiveBufferSize(bufferSize);
+                }
                 listener.onStatus("Connecting stream " + host + ":" + port + " (try " + i + "/15)");
                 socket.connect(new InetSocketAddress(host, port), 4000);
                 socket.setSoTimeout(STREAM_READ_TIMEOUT_MS);
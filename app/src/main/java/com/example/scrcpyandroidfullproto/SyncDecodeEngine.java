@@ -0,0 +1,103 @@
+package com.example.scrcpyandroidfullproto;
+
+import android.media.MediaCodec;
+import android.view.Surface;
+
+import com.example.scrcpy.proto.DecodeQueue;
+import com.example.scrcpy.proto.PipelineLatency;
+import com.example.scrcpy.proto.PooledPacket;
+import com.example.scrcpy.proto.VideoCodec;
+import com.example.scrcpy.proto.VideoCodecMetadata;
+
+/**
+ * Polling engine: one thread alternates between waiting for packets, dequeuing input buffers and
+ * draining every ready output buffer.
+ */
+final class SyncDecodeEngine extends VideoDecodeEngine implements Runnable {
+    private static final long INPUT_DEQUEUE_TIMEOUT_US = 10000;
+    private static final long PACKET_WAIT_NANOS = 2_000_000L;
+
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private final Thread thread = new Thread(this, "scrcpy-video-decoder");
+
+    SyncDecodeEngine(MediaCodec decoder, DecoderTuning tuning, ScrcpyVideoClient.FramePacing pacing,
+                     PipelineLatency latency, VideoCodec codec, VideoCodecMetadata meta, Surface surface,
+                     DecodeQueue queue, ScrcpyVideoClient.Listener listener) {
+        super(decoder, tuning, pacing, latency, codec, meta, surface, queue, listener);
+    }
+
+    @Override
+    protected void startEngine() {
+        thread.start();
+    }
+
+    @Override
+    protected void stopEngine() {
+        active = false;
+        thread.interrupt();
+        joinUninterruptibly(thread);
+    }
+
+    @Override
+    protected void requestPark() {
+        // The loop checks for it at least every PACKET_WAIT_NANOS.
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (active) {
+                parkIfRequested();
+                stage = "take_packet";
+                PooledPacket packet = queue.take(PACKET_WAIT_NANOS);
+                if (packet != null) {
+                    try {
+                        if (packet.isConfig()) {
+                            configure(packet);
+                        } else if (isConfigured()) {
+                            stage = "dequeue_input";
+                            int index = dequeueInputBuffer();
+                            if (index < 0) {
+                                // Stopping or parking; the packet is dropped either way.
+                                continue;
+                            }
+                            queueInput(index, packet);
+                        }
+                    } finally {
+                        packet.release();
+                    }
+                }
+                if (isConfigured()) {
+                    stage = "dequeue_output";
+                    releaseOutputBuffers();
+                }
+                reportDrops();
+            }
+        } catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    private int dequeueInputBuffer() {
+        // Keep draining output while waiting so a full decoder cannot deadlock the input side.
+        while (active && !isParkRequested()) {
+            int index = decoder.dequeueInputBuffer(INPUT_DEQUEUE_TIMEOUT_US);
+            if (index >= 0) {
+                return index;
+            }
+            releaseOutputBuffers();
+        }
+        return -1;
+    }
+
+    private void releaseOutputBuffers() {
+        while (true) {
+            int index = decoder.dequeueOutputBuffer(info, 0);
+            if (index >= 0) {
+                renderOutput(index, info.presentationTimeUs);
+            } else if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.example.scrcpyandroidfullproto;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.view.Surface;
+
+import com.example.scrcpy.proto.DecodeQueue;
+import com.example.scrcpy.proto.PipelineLatency;
+import com.example.scrcpy.proto.PooledPacket;
+import com.example.scrcpy.proto.SequenceParameterSet;
+import com.example.scrcpy.proto.SpsParser;
+import com.example.scrcpy.proto.VideoCodec;
+import com.example.scrcpy.proto.VideoCodecMetadata;
+
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consumer side of a session's {@link DecodeQueue}: feeds packets to the {@link MediaCodec} and
+ * renders its output. The reader thread calls {@link #submit}; everything else runs on the
+ * engine's own thread. Subclasses decide how input and output buffers are waited for.
+ *
+ * <p>Between sessions an engine can be {@link #park parked} with its decoder still configured and
+ * {@link #resume resumed} by the next session for the same codec, size and surface.
+ */
+abstract class VideoDecodeEngine {
+    private static final long DROP_STATUS_INTERVAL_NANOS = 1_000_000_000L;
+
+    protected final MediaCodec decoder;
+    protected final DecodeQueue queue;
+    private final VideoCodec codec;
+    private final VideoCodecMetadata meta;
+    private final Surface surface;
+    private final ScrcpyVideoClient.Listener listener;
+    private volatile Thread readerThread;
+    protected volatile boolean active = true;
+    volatile String stage = "decode";
+    volatile Throwable failure;
+    private final DecoderTuning tuning;
+    private final FramePacer pacer;
+    private final PipelineLatency latency;
+    private final PipelineLatency.InFlight inFlight;
+    private boolean configured;
+    private long csdHash;
+    private volatile boolean parkRequested;
+    private final Semaphore parked = new Semaphore(0);
+    private EnumSet<DecoderTuning.Option> acceptedOptions;
+    private long firstInputNanos;
+    private boolean tuningRecorded;
+    private int reportedWidth;
+    private int reportedHeight;
+    private long reportedDrops;
+    private long lastDropStatusNanos;
+
+    VideoDecodeEngine(MediaCodec decoder, DecoderTuning tuning, ScrcpyVideoClient.FramePacing pacing,
+                      PipelineLatency latency, VideoCodec codec, VideoCodecMetadata meta, Surface surface,
+                      DecodeQueue queue, ScrcpyVideoClient.Listener listener) {
+        this.decoder = decoder;
+        this.tuning = tuning;
+        this.latency = latency;
+        inFlight = latency.newInFlight();
+        pacer = pacing == ScrcpyVideoClient.FramePacing.IMMEDIATE ? null
+                : new FramePacer(decoder, latency, pacing == ScrcpyVideoClient.FramePacing.VSYNC_JITTER_BUFFER);
+        this.codec = codec;
+        this.meta = meta;
+        this.surface = surface;
+        this.queue = queue;
+        this.listener = listener;
+        readerThread = Thread.currentThread();
+        reportedWidth = meta.width;
+        reportedHeight = meta.height;
+    }
+
+    /**
+     * Creates the engine for {@code mode}, falling back to the synchronous one where
+     * {@link MediaCodec#setCallback} is not available. Must be called on the reader thread.
+     */
+    static VideoDecodeEngine create(ScrcpyVideoClient.DecoderMode mode, MediaCodec decoder, DecoderTuning tuning,
+                                    ScrcpyVideoClient.FramePacing pacing, PipelineLatency latency, VideoCodec codec,
+                                    VideoCodecMetadata meta, Surface surface, DecodeQueue queue,
+                                    ScrcpyVideoClient.Listener listener) {
+        if (mode == ScrcpyVideoClient.DecoderMode.ASYNC && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return new AsyncDecodeEngine(decoder, tuning, pacing, latency, codec, meta, surface, queue, listener);
+        }
+        return new SyncDecodeEngine(decoder, tuning, pacing, latency, codec, meta, surface, queue, listener);
+    }
+
+    final void start() {
+        if (pacer != null) {
+            pacer.start();
+        }
+        startEngine();
+    }
+
+    /**
+     * Stops the engine and pacer threads and waits for them, so the decoder can be released
+     * afterwards.
+     */
+    final void stop() {
+        stopEngine();
+        if (pacer != null) {
+            pacer.stop();
+        }
+    }
+
+    protected abstract void startEngine();
+
+    protected abstract void stopEngine();
+
+    /**
+     * Reader side, at the end of a session: drops the queued packets and flushes the decoder on the
+     * engine thread, keeping it configured. Returns false if the engine failed or did not park
+     * within {@code timeoutMillis}; it must then be stopped.
+     */
+    final boolean park(long timeoutMillis) {
+        if (failure != null) {
+            return false;
+        }
+        parkRequested = true;
+        requestPark();
+        boolean interrupted = Thread.interrupted();
+        boolean done = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                done = parked.tryAcquire(remaining, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                // The session is usually ending because the reader was interrupted.
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return done && failure == null;
+    }
+
+    /**
+     * Reader side: takes a parked engine over for a new session read by the calling thread.
+     */
+    final void resume() {
+        readerThread = Thread.currentThread();
+        // Published to the engine thread by the queue along with the first packet.
+        reportedWidth = meta.width;
+        reportedHeight = meta.height;
+    }
+
+    /**
+     * Makes the engine thread call {@link #parkIfRequested} soon.
+     */
+    protected abstract void requestPark();
+
+    protected final boolean isParkRequested() {
+        return parkRequested;
+    }
+
+    /**
+     * Engine thread: carries out a pending {@link #park} request.
+     */
+    protected final void parkIfRequested() {
+        if (!parkRequested) {
+            return;
+        }
+        stage = "park";
+        queue.clear();
+        flush();
+        inFlight.reset();
+        parkRequested = false;
+        parked.release();
+    }
+
+    /**
+     * Called after every {@link MediaCodec#flush} of the configured decoder.
+     */
+    protected void afterFlush() {
+    }
+
+    /**
+     * Frames decoded but skipped by the pacer in favour of a newer one.
+     */
+    long skippedRenderFrames() {
+        return pacer != null ? pacer.skippedFrames() : 0;
+    }
+
+    /**
+     * Reader side. Queues {@code packet}, waiting for space; returns false if the session should
+     * end (interrupted, or the engine failed).
+     */
+    boolean submit(PooledPacket packet) {
+        if (!queue.put(packet)) {
+            return false;
+        }
+        onPacketQueued();
+        return failure == null;
+    }
+
+    /**
+     * Reader side, after each queued packet.
+     */
+    protected void onPacketQueued() {
+    }
+
+    /**
+     * Called before every {@link MediaCodec#configure}, with the decoder stopped.
+     */
+    protected void beforeConfigure() {
+    }
+
+    protected final boolean isConfigured() {
+        return configured;
+    }
+
+    /**
+     * Configures (or reconfigures) the decoder from a config packet. Packets without usable
+     * parameter sets are ignored.
+     */
+    protected final void configure(PooledPacket config) {
+        stage = "parse_config";
+        ByteBuffer[] csd = codec.extractCsd(config.data(), config.size());
+        if (csd == null) {
+            return;
+        }
+        long hash = hashCsd(csd);
+        if (configured && hash == csdHash) {
+            // Same parameter sets: dropping the in-flight frames is enough, no need to reconfigure.
+            stage = "flush_decoder";
+            flush();
+            listener.onStatus("Decoder configured (reused, parameter sets unchanged)");
+            return;
+        }
+        SequenceParameterSet sps = SpsParser.parse(codec, config.data(), config.size());
+        stage = "configure_decoder";
+        if (sps != null) {
+            listener.onStatus("Stream " + sps);
+            // The codec metadata is only sent once; rotations show up as a new SPS.
+            if (sps.width != reportedWidth || sps.height != reportedHeight) {
+                reportedWidth = sps.width;
+                reportedHeight = sps.height;
+                listener.onResolutionChanged(reportedWidth, reportedHeight);
+            }
+        }
+        if (configured) {
+            if (pacer != null) {
+                pacer.flush();
+            }
+            decoder.stop();
+            configured = false;
+        }
+        EnumSet<DecoderTuning.Option> options = tuning.initialOptions(sps);
+        while (true) {
+            MediaFormat format = DecoderFormats.create(codec, meta.width, meta.height, sps, csd);
+            tuning.apply(format, options);
+            beforeConfigure();
+            try {
+                decoder.configure(format, surface, null, 0);
+                decoder.start();
+                break;
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                // CodecException is an IllegalStateException; reset() recovers from either.
+                if (!tuning.fallBack(options)) {
+                    throw e;
+                }
+                decoder.reset();
+                listener.onStatus("Decoder rejected low-latency keys, retrying with " + options);
+            }
+        }
+        configured = true;
+        csdHash = hash;
+        acceptedOptions = options;
+        firstInputNanos = 0;
+        listener.onStatus("Decoder configured");
+    }
+
+    private void flush() {
+        if (!configured) {
+            return;
+        }
+        if (pacer != null) {
+            pacer.flush();
+        }
+        decoder.flush();
+        afterFlush();
+    }
+
+    /**
+     * 64-bit FNV-1a over the codec-specific data buffers.
+     */
+    private static long hashCsd(ByteBuffer[] csd) {
+        long hash = 0xcbf29ce484222325L;
+        for (ByteBuffer buffer : csd) {
+            for (int i = buffer.position(); i < buffer.limit(); i++) {
+                hash = (hash ^ (buffer.get(i) & 0xff)) * 0x100000001b3L;
+            }
+            // Separates buffers so moving bytes from one to the next changes the hash.
+            hash = (hash ^ 0x100) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Copies {@code packet} into input buffer {@code index} and queues it.
+     */
+    protected final void queueInput(int index, PooledPacket packet) {
+        stage = "queue_input";
+        ByteBuffer inputBuffer = decoder.getInputBuffer(index);
+        if (inputBuffer == null) {
+            decoder.queueInputBuffer(index, 0, 0, packet.ptsUs(), 0);
+            return;
+        }
+        inputBuffer.clear();
+        inputBuffer.put(packet.data(), 0, packet.size());
+        if (firstInputNanos == 0) {
+            firstInputNanos = System.nanoTime();
+        }
+        int flags = packet.isKeyFrame() ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+        decoder.queueInputBuffer(index, 0, packet.size(), packet.ptsUs(), flags);
+        inFlight.onQueued(packet, System.nanoTime());
+    }
+
+    /**
+     * Called by subclasses for every decoded output buffer: renders it now, or hands it to the
+     * vsync pacer.
+     */
+    protected final void renderOutput(int index, long ptsUs) {
+        long now = System.nanoTime();
+        long headerNanos = inFlight.onDecoded(ptsUs, now);
+        if (pacer != null) {
+            pacer.onFrameDecoded(index, ptsUs, now, headerNanos);
+        } else {
+            decoder.releaseOutputBuffer(index, true);
+            latency.onReleased(headerNanos, now, System.nanoTime());
+        }
+        onFrameDecoded();
+    }
+
+    /**
+     * The first decoded frame of a session completes the tuning probe.
+     */
+    private void onFrameDecoded() {
+        if (tuningRecorded || firstInputNanos == 0) {
+            return;
+        }
+        tuningRecorded = true;
+        long firstFrameUs = (System.nanoTime() - firstInputNanos) / 1000;
+        tuning.recordResult(firstFrameUs);
+        listener.onStatus(String.format(Locale.US, "Decoder %s %s%s, first frame %.1f ms", tuning.decoderName(),
+                acceptedOptions, tuning.isFromCache() ? " (cached)" : "", firstFrameUs / 1000.0));
+    }
+
+    /**
+     * Reports drop counters through the listener when they changed, at most once per second.
+     */
+    protected final void reportDrops() {
+        long drops = queue.droppedNonReference() + queue.droppedToKeyFrame();
+        if (drops == reportedDrops) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - lastDropStatusNanos >= DROP_STATUS_INTERVAL_NANOS) {
+            reportedDrops = drops;
+            lastDropStatusNanos = now;
+            listener.onStatus("Decoder behind: dropped " + queue.droppedNonReference()
+                    + " non-reference, " + queue.droppedToKeyFrame() + " up to key frames");
+        }
+    }
+
+    /**
+     * Records a decoder failure and wakes the reader, which rethrows it.
+     */
+    protected final void fail(Throwable t) {
+        if (active && failure == null) {
+            failure = t;
+            // Unblocks the reader if it is waiting for queue space.
+            readerThread.interrupt();
+        }
+    }
+
+    /**
+     * Joins {@code thread} even if the caller is interrupted, then restores the interrupt.
+     */
+    protected static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = Thread.interrupted();
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
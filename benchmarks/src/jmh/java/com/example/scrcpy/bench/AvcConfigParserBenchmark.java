@@ -0,0 +1,26 @@
+package com.example.scrcpy.bench;
+
+import com.example.scrcpy.proto.AvcConfigParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+@State(Scope.Thread)
+public class AvcConfigParserBenchmark {
+    private byte[] configPacket;
+
+    @Setup
+    public void setUp() throws IOException {
+        configPacket = StreamFixtures.firstConfigPacket(StreamFixtures.loadStream());
+    }
+
+    @Benchmark
+    public ByteBuffer[] extractCsd() {
+        return AvcConfigParser.extractCsd(configPacket, configPacket.length);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.scrcpy.bench;
+
+import com.example.scrcpy.proto.ControlMessageEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+@State(Scope.Thread)
+public class ControlMessageEncoderBenchmark {
+    private static final int ACTION_MOVE = 2;
+    private static final int ACTION_DOWN = 0;
+    private static final int KEYCODE_BACK = 4;
+
+    private final byte[] target = new byte[64 * 1024];
+    private byte[] clipboardText;
+    private int x;
+
+    @Setup
+    public void setUp() {
+        char[] chars = new char[4096];
+        Arrays.fill(chars, 'a');
+        clipboardText = new String(chars).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A fresh array per message, as before ScrcpyControlClient encoded into ring slots.
+     */
+    @Benchmark
+    public byte[] touchEventAllocating() {
+        byte[] payload = new byte[ControlMessageEncoder.INJECT_TOUCH_EVENT_LENGTH];
+        ControlMessageEncoder.writeInjectTouchEvent(payload, 0, ACTION_MOVE, 0, x++ & 1023, 540,
+                1080, 2400, 1f, 0, 0);
+        return payload;
+    }
+
+    @Benchmark
+    public int touchEventReused() {
+        return ControlMessageEncoder.writeInjectTouchEvent(target, 0, ACTION_MOVE, 0, x++ & 1023, 540,
+                1080, 2400, 1f, 0, 0);
+    }
+
+    @Benchmark
+    public int keycode() {
+        return ControlMessageEncoder.writeInjectKeycode(target, 0, ACTION_DOWN, KEYCODE_BACK, 0, 0);
+    }
+
+    @Benchmark
+    public int setClipboard4k() {
+        return ControlMessageEncoder.writeSetClipboard(target, 0, x++, false, clipboardText, clipboardText.length);
+    }
+}
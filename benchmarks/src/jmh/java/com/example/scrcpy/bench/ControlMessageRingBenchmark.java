@@ -0,0 +1,48 @@
+package com.example.scrcpy.bench;
+
+import com.example.scrcpy.proto.ControlMessageEncoder;
+import com.example.scrcpy.proto.ControlMessageRing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Three input threads publishing touch events against one writer draining batches, as in
+ * ScrcpyControlClient. {@code publishTouch} returns false when the event was dropped.
+ */
+@State(Scope.Group)
+public class ControlMessageRingBenchmark {
+    private static final int ACTION_MOVE = 2;
+
+    private final ControlMessageRing ring = new ControlMessageRing(128, 0.75);
+
+    @State(Scope.Thread)
+    public static class Producer {
+        long pointerId;
+        int x;
+    }
+
+    @Benchmark
+    @Group("mpsc")
+    @GroupThreads(3)
+    public boolean publishTouch(Producer producer) {
+        long position = ring.claim(true);
+        if (position < 0) {
+            return false;
+        }
+        int length = ControlMessageEncoder.writeInjectTouchEvent(ring.slot(position), 0, ACTION_MOVE,
+                producer.pointerId, producer.x++ & 1023, 540, 1080, 2400, 1f, 0, 0);
+        ring.publish(position, length, ControlMessageRing.KIND_TOUCH_MOVE, producer.pointerId);
+        return true;
+    }
+
+    @Benchmark
+    @Group("mpsc")
+    @GroupThreads(1)
+    public int drain() {
+        return ring.drainBatch(16 * 1024);
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.scrcpy.bench;
+
+import com.example.scrcpy.proto.FrameHeader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+@State(Scope.Thread)
+public class FrameHeaderBenchmark {
+    private static final int SAMPLES = 1024;
+
+    private final long[] ptsAndFlags = new long[SAMPLES];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            long flags = random.nextInt(30) == 0 ? 1L << 62 : 0;
+            ptsAndFlags[i] = flags | (i * 16_666L);
+        }
+    }
+
+    @Benchmark
+    public FrameHeader fromWire() {
+        int i = next++ & (SAMPLES - 1);
+        return FrameHeader.fromWire(ptsAndFlags[i], 12 * 1024);
+    }
+
+    @Benchmark
+    public void staticAccessors(Blackhole bh) {
+        long value = ptsAndFlags[next++ & (SAMPLES - 1)];
+        bh.consume(FrameHeader.isConfig(value));
+        bh.consume(FrameHeader.isKeyFrame(value));
+        bh.consume(FrameHeader.ptsUs(value));
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.scrcpy.bench;
+
+import com.example.scrcpy.proto.LatencyHistogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Cost of recording one latency sample, which happens several times per frame. Run with
+ * {@code -prof gc} to confirm it does not allocate.
+ */
+@State(Scope.Thread)
+public class LatencyHistogramBenchmark {
+    private static final int SAMPLES = 1024;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final long[] durations = new long[SAMPLES];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            // Log-normal around 8 ms, like decode and end-to-end latencies.
+            durations[i] = (long) (8_000_000 * Math.exp(random.nextGaussian() * 0.5));
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        histogram.record(durations[next++ & (SAMPLES - 1)]);
+    }
+}
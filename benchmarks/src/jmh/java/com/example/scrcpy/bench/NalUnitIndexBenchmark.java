@@ -0,0 +1,56 @@
+package com.example.scrcpy.bench;
+
+import com.example.scrcpy.proto.NalUnitIndex;
+import com.example.scrcpy.proto.VideoCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Indexes every packet body of the stream in place, one packet per invocation.
+ */
+@State(Scope.Thread)
+public class NalUnitIndexBenchmark {
+    private final NalUnitIndex index = new NalUnitIndex(VideoCodec.H264);
+    private byte[] stream;
+    private int[] packetOffsets;
+    private int[] packetSizes;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        stream = StreamFixtures.loadStream();
+        ByteBuffer buffer = ByteBuffer.wrap(stream);
+        buffer.position(StreamFixtures.CODEC_METADATA_SIZE);
+        int count = 0;
+        packetOffsets = new int[16];
+        packetSizes = new int[16];
+        while (buffer.remaining() >= 12) {
+            buffer.getLong();
+            int size = buffer.getInt();
+            if (count == packetOffsets.length) {
+                packetOffsets = Arrays.copyOf(packetOffsets, count * 2);
+                packetSizes = Arrays.copyOf(packetSizes, count * 2);
+            }
+            packetOffsets[count] = buffer.position();
+            packetSizes[count] = size;
+            count++;
+            buffer.position(buffer.position() + size);
+        }
+        packetOffsets = Arrays.copyOf(packetOffsets, count);
+        packetSizes = Arrays.copyOf(packetSizes, count);
+    }
+
+    @Benchmark
+    public int scanPacket() {
+        int packet = next;
+        next = packet + 1 == packetOffsets.length ? 0 : packet + 1;
+        return index.scan(stream, packetOffsets[packet], packetSizes[packet]);
+    }
+}
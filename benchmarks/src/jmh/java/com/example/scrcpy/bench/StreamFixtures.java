@@ -0,0 +1,185 @@
+package com.example.scrcpy.bench;
+
+import com.example.scrcpy.proto.CaptureReplay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Input streams for the benchmarks: a raw scrcpy video socket dump (codec metadata followed by
+ * framed packets) or a {@code .scap} capture passed with {@code -Dscrcpy.bench.recording=...}, or a
+ * synthetic H.264-shaped one.
+ */
+final class StreamFixtures {
+    static final String RECORDING_PROPERTY = "scrcpy.bench.recording";
+    static final int CODEC_METADATA_SIZE = 12;
+    static final int CODEC_ID_H264 = 0x68323634;
+    private static final long CONFIG_FLAG = 1L << 63;
+    private static final long KEY_FRAME_FLAG = 1L << 62;
+
+    private StreamFixtures() {
+    }
+
+    static byte[] loadStream() throws IOException {
+        String recording = System.getProperty(RECORDING_PROPERTY);
+        if (recording != null && recording.endsWith(".scap")) {
+            try (CaptureReplay replay = new CaptureReplay(new File(recording));
+                 InputStream in = replay.openStream(false)) {
+                return trimToCompletePackets(readFully(in));
+            }
+        }
+        if (recording != null && !recording.isEmpty()) {
+            return trimToCompletePackets(Files.readAllBytes(Paths.get(recording)));
+        }
+        // ~1080p60 shaped: 200 KB key frame every 60 frames, 12 KB otherwise.
+        return syntheticStream(240, 60, 200 * 1024, 12 * 1024);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(chunk)) > 0) {
+            bytes.write(chunk, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] syntheticStream(int frames, int gopSize, int keyFrameSize, int frameSize) throws IOException {
+        Random random = new Random(42);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(CODEC_ID_H264);
+        out.writeInt(1920);
+        out.writeInt(1080);
+        byte[] config = syntheticConfigPacket();
+        long ptsUs = 0;
+        for (int i = 0; i < frames; i++) {
+            boolean keyFrame = i % gopSize == 0;
+            if (keyFrame) {
+                out.writeLong(CONFIG_FLAG | ptsUs);
+                out.writeInt(config.length);
+                out.write(config);
+            }
+            int size = keyFrame ? keyFrameSize : frameSize + random.nextInt(frameSize / 2);
+            byte[] body = new byte[size];
+            random.nextBytes(body);
+            // Annex-B start code + IDR (5) or non-IDR (1) slice NAL header.
+            body[0] = 0;
+            body[1] = 0;
+            body[2] = 0;
+            body[3] = 1;
+            body[4] = (byte) (keyFrame ? 0x65 : 0x41);
+            out.writeLong((keyFrame ? KEY_FRAME_FLAG : 0) | ptsUs);
+            out.writeInt(size);
+            out.write(body);
+            ptsUs += 16_666;
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] syntheticConfigPacket() {
+        return new byte[]{
+                0, 0, 0, 1, 0x67, 0x64, 0x00, 0x28, (byte) 0xac, (byte) 0xd9, 0x40, 0x78, 0x02, 0x27,
+                (byte) 0xe5, (byte) 0xc0, 0x44, 0x00, 0x00, 0x03, 0x00, 0x04, 0x00, 0x00, 0x03, 0x00,
+                (byte) 0xf0, 0x3c, 0x60, (byte) 0xc6, 0x58,
+                0, 0, 0, 1, 0x68, (byte) 0xeb, (byte) 0xe3, (byte) 0xcb, 0x22, (byte) 0xc0
+        };
+    }
+
+    /**
+     * Drops a trailing partial packet so the stream can be looped.
+     */
+    static byte[] trimToCompletePackets(byte[] stream) {
+        ByteBuffer buffer = ByteBuffer.wrap(stream);
+        buffer.position(CODEC_METADATA_SIZE);
+        int end = CODEC_METADATA_SIZE;
+        while (buffer.remaining() >= 12) {
+            buffer.getLong();
+            int size = buffer.getInt();
+            if (size <= 0 || size > buffer.remaining()) {
+                break;
+            }
+            buffer.position(buffer.position() + size);
+            end = buffer.position();
+        }
+        if (end == CODEC_METADATA_SIZE) {
+            throw new IllegalArgumentException("Recording contains no complete packet");
+        }
+        return end == stream.length ? stream : Arrays.copyOf(stream, end);
+    }
+
+    /**
+     * Returns the body of the first config packet in {@code stream}, or a synthetic one.
+     */
+    static byte[] firstConfigPacket(byte[] stream) {
+        ByteBuffer buffer = ByteBuffer.wrap(stream);
+        buffer.position(CODEC_METADATA_SIZE);
+        while (buffer.remaining() >= 12) {
+            long ptsAndFlags = buffer.getLong();
+            int size = buffer.getInt();
+            if (size < 0 || size > buffer.remaining()) {
+                break;
+            }
+            if ((ptsAndFlags & CONFIG_FLAG) != 0) {
+                byte[] config = new byte[size];
+                buffer.get(config);
+                return config;
+            }
+            buffer.position(buffer.position() + size);
+        }
+        return syntheticConfigPacket();
+    }
+
+    /**
+     * Endless stream over the packet section of a dump, so every benchmark op can read one packet.
+     */
+    static final class LoopingInputStream extends InputStream {
+        private final byte[] data;
+        private final int start;
+        private int position;
+
+        LoopingInputStream(byte[] data, int start) {
+            this.data = data;
+            this.start = start;
+            this.position = start;
+        }
+
+        @Override
+        public int read() {
+            int value = data[position] & 0xFF;
+            advance(1);
+            return value;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) {
+            int n = Math.min(length, data.length - position);
+            System.arraycopy(data, position, target, offset, n);
+            advance(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.min(n, data.length - position);
+            advance(skipped);
+            return skipped;
+        }
+
+        private void advance(int n) {
+            position += n;
+            if (position >= data.length) {
+                position = start;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.scrcpy.bench;
+
+import com.example.scrcpy.proto.PacketPool;
+import com.example.scrcpy.proto.PooledPacket;
+import com.example.scrcpy.proto.ScrcpyStreamDemuxer;
+import com.example.scrcpy.proto.ScrcpyVideoStreamReader;
+import com.example.scrcpy.proto.VideoCodecMetadata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+@State(Scope.Thread)
+public class VideoStreamReaderBenchmark {
+    private static final int FEED_CHUNK_SIZE = 64 * 1024;
+
+    private ScrcpyVideoStreamReader reader;
+    private PacketPool pool;
+    private ByteBuffer codecBuffer;
+    private ByteBuffer stream;
+    private ScrcpyStreamDemuxer demuxer;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) throws IOException {
+        this.blackhole = blackhole;
+        byte[] data = StreamFixtures.loadStream();
+        reader = new ScrcpyVideoStreamReader(new StreamFixtures.LoopingInputStream(data, StreamFixtures.CODEC_METADATA_SIZE));
+        pool = new PacketPool();
+        // Codec input buffers are direct.
+        codecBuffer = ByteBuffer.allocateDirect(4 * 1024 * 1024);
+        stream = ByteBuffer.wrap(data);
+        stream.position(StreamFixtures.CODEC_METADATA_SIZE);
+        demuxer = new ScrcpyStreamDemuxer(new ScrcpyStreamDemuxer.Listener() {
+            @Override
+            public void onCodecMetadata(VideoCodecMetadata metadata) {
+            }
+
+            @Override
+            public void onPacket(long ptsAndFlags, ByteBuffer data) {
+                VideoStreamReaderBenchmark.this.blackhole.consume(ptsAndFlags);
+                VideoStreamReaderBenchmark.this.blackhole.consume(data.get(data.position()));
+            }
+        }, false);
+    }
+
+    @Benchmark
+    public ScrcpyVideoStreamReader.Packet readPacketAllocating() throws IOException {
+        return reader.readPacket();
+    }
+
+    @Benchmark
+    public void readPacketPooled(Blackhole bh) throws IOException {
+        bh.consume(reader.readRawPacketHeader());
+        PooledPacket packet = reader.readPacketBody(pool);
+        bh.consume(packet.data()[0]);
+        packet.release();
+    }
+
+    @Benchmark
+    public void readPacketIntoCodecBuffer(Blackhole bh) throws IOException {
+        bh.consume(reader.readRawPacketHeader());
+        codecBuffer.clear();
+        reader.readPacketBody(codecBuffer);
+        bh.consume(codecBuffer.position());
+    }
+
+    @Benchmark
+    public void demuxFeedChunk() throws IOException {
+        if (!stream.hasRemaining()) {
+            stream.limit(stream.capacity());
+            stream.position(StreamFixtures.CODEC_METADATA_SIZE);
+        }
+        int start = stream.position();
+        stream.limit(Math.min(stream.capacity(), start + FEED_CHUNK_SIZE));
+        demuxer.feed(stream);
+        stream.limit(stream.capacity());
+    }
+}
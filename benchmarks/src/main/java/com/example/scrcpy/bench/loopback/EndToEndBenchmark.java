@@ -0,0 +1,212 @@
+package com.example.scrcpy.bench.loopback;
+
+import com.example.scrcpy.proto.ChannelVideoStreamReader;
+import com.example.scrcpy.proto.ControlMessageEncoder;
+import com.example.scrcpy.proto.FrameHeader;
+import com.example.scrcpy.proto.ScrcpyVideoStreamReader;
+import com.example.scrcpy.proto.VideoStreamReader;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Runs {@link FakeScrcpyServer} on loopback and drives it like the app does: a video reader pulling
+ * packets into a codec-sized direct buffer, and a control client round-tripping SET_CLIPBOARD
+ * acknowledgements. Prints sustained packet/byte rates, header-to-delivery latency percentiles and
+ * control round-trip percentiles.
+ *
+ * <p>Options: {@code --seconds N --fps N --bitrate BPS --gop N --reader stream|channel
+ * --control-interval-ms N --replay FILE}.
+ */
+public final class EndToEndBenchmark {
+    private static final int CODEC_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private EndToEndBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        FakeScrcpyServer.Config config = new FakeScrcpyServer.Config();
+        int seconds = 10;
+        boolean channelReader = false;
+        int controlIntervalMs = 10;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--seconds":
+                    seconds = Integer.parseInt(value);
+                    break;
+                case "--fps":
+                    config.fps = Integer.parseInt(value);
+                    break;
+                case "--bitrate":
+                    config.bitRate = Integer.parseInt(value);
+                    break;
+                case "--gop":
+                    config.gopSize = Integer.parseInt(value);
+                    break;
+                case "--reader":
+                    channelReader = "channel".equals(value);
+                    break;
+                case "--control-interval-ms":
+                    controlIntervalMs = Integer.parseInt(value);
+                    break;
+                case "--replay":
+                    config.replay = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        try (FakeScrcpyServer server = new FakeScrcpyServer(config)) {
+            server.start();
+            InetSocketAddress address = new InetSocketAddress("127.0.0.1", server.port());
+            VideoStreamReader reader;
+            if (channelReader) {
+                SocketChannel channel = SocketChannel.open(address);
+                channel.socket().setTcpNoDelay(true);
+                reader = new ChannelVideoStreamReader(channel, ChannelVideoStreamReader.DEFAULT_BUFFER_SIZE, 5000);
+            } else {
+                Socket socket = new Socket();
+                socket.setTcpNoDelay(true);
+                socket.connect(address);
+                socket.setSoTimeout(5000);
+                reader = new ScrcpyVideoStreamReader(socket.getInputStream());
+            }
+            Socket control = new Socket();
+            control.setTcpNoDelay(true);
+            control.connect(address);
+
+            ControlProbe probe = new ControlProbe(control, controlIntervalMs);
+            Thread probeThread = new Thread(probe, "e2e-control");
+            probeThread.setDaemon(true);
+
+            LatencySamples latencies = new LatencySamples();
+            ByteBuffer codecBuffer = ByteBuffer.allocateDirect(CODEC_BUFFER_SIZE);
+            long packets = 0;
+            long bytes = 0;
+            try (VideoStreamReader video = reader) {
+                video.readCodecMetadata();
+                probeThread.start();
+                long start = System.nanoTime();
+                long end = start + seconds * 1_000_000_000L;
+                while (System.nanoTime() < end) {
+                    long ptsAndFlags = video.readRawPacketHeader();
+                    int size = video.pendingPacketSize();
+                    codecBuffer.clear();
+                    video.readPacketBody(codecBuffer);
+                    long now = System.nanoTime();
+                    if (!FrameHeader.isConfig(ptsAndFlags)) {
+                        latencies.add(now - server.epochNanos() - FrameHeader.ptsUs(ptsAndFlags) * 1000);
+                    }
+                    packets++;
+                    bytes += 12 + size;
+                }
+                double elapsed = (System.nanoTime() - start) / 1e9;
+                probe.stop();
+                control.close();
+
+                System.out.printf(Locale.US, "reader=%s fps=%d bitrate=%d gop=%d%s%n",
+                        channelReader ? "channel" : "stream", config.fps, config.bitRate, config.gopSize,
+                        config.replay != null ? " replay=" + config.replay : "");
+                System.out.printf(Locale.US, "video: %.0f packets/s, %.2f MB/s over %.1f s%n",
+                        packets / elapsed, bytes / elapsed / 1e6, elapsed);
+                System.out.println("video header-to-delivery latency: " + latencies.summary());
+                System.out.println("control SET_CLIPBOARD round trip: " + probe.roundTrips.summary()
+                        + " (" + probe.roundTrips.count() + " acks)");
+            }
+        }
+    }
+
+    /**
+     * Sends SET_CLIPBOARD with increasing sequence numbers and times each ACK_CLIPBOARD.
+     */
+    private static final class ControlProbe implements Runnable {
+        final LatencySamples roundTrips = new LatencySamples();
+        private final Socket socket;
+        private final int intervalMs;
+        private volatile boolean running = true;
+
+        ControlProbe(Socket socket, int intervalMs) {
+            this.socket = socket;
+            this.intervalMs = intervalMs;
+        }
+
+        void stop() {
+            running = false;
+        }
+
+        @Override
+        public void run() {
+            byte[] text = "e2e".getBytes(StandardCharsets.UTF_8);
+            byte[] message = new byte[ControlMessageEncoder.SET_CLIPBOARD_HEADER_LENGTH + text.length];
+            try {
+                OutputStream out = socket.getOutputStream();
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                for (long sequence = 1; running; sequence++) {
+                    int length = ControlMessageEncoder.writeSetClipboard(message, 0, sequence, false, text, text.length);
+                    long sent = System.nanoTime();
+                    out.write(message, 0, length);
+                    out.flush();
+                    int type = in.readUnsignedByte();
+                    long acked = in.readLong();
+                    if (type != 1 || acked != sequence) {
+                        throw new IOException("Unexpected device message " + type + " seq " + acked);
+                    }
+                    roundTrips.add(System.nanoTime() - sent);
+                    if (intervalMs > 0) {
+                        Thread.sleep(intervalMs);
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                if (running) {
+                    System.err.println("control probe failed: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Raw nanosecond samples; percentiles are computed by sorting at the end of the run.
+     */
+    private static final class LatencySamples {
+        private long[] samples = new long[1 << 16];
+        private int count;
+
+        synchronized void add(long nanos) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = nanos;
+        }
+
+        synchronized int count() {
+            return count;
+        }
+
+        synchronized String summary() {
+            if (count == 0) {
+                return "no samples";
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return String.format(Locale.US, "p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                    percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), sorted[sorted.length - 1] / 1e3);
+        }
+
+        private static double percentile(long[] sorted, double quantile) {
+            int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+            return sorted[Math.max(0, index)] / 1e3;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package com.example.scrcpy.bench.loopback;
+
+import com.example.scrcpy.proto.CaptureReplay;
+import com.example.scrcpy.proto.ControlMessageEncoder;
+import com.example.scrcpy.proto.FrameHeader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Stand-in for {@code scrcpy-server.jar} on a TCP port, as seen through {@code adb forward} with
+ * {@code tunnel_forward=true send_dummy_byte=false send_device_meta=false}: the first accepted
+ * connection is the video socket, the second the control socket.
+ *
+ * <p>Video is synthetic Annex-B H.264 shaped by bit rate, fps and GOP size, or a replayed raw
+ * socket dump / {@code .scap} capture. The pts of every packet is replaced by its send time in
+ * microseconds since {@link #epochNanos()}, so a client in the same process can measure
+ * header-to-delivery latency. The control socket decodes every scrcpy 3.x client message, answers
+ * GET_CLIPBOARD and acknowledges SET_CLIPBOARD like the real server, and honours RESET_VIDEO.
+ */
+public final class FakeScrcpyServer implements Closeable {
+    public static final int CODEC_ID_H264 = 0x68323634;
+    private static final int DEVICE_MSG_CLIPBOARD = 0;
+    private static final int DEVICE_MSG_ACK_CLIPBOARD = 1;
+    private static final int TYPE_INJECT_TEXT = 1;
+    private static final int TYPE_INJECT_SCROLL_EVENT = 3;
+    private static final int TYPE_BACK_OR_SCREEN_ON = 4;
+    private static final int TYPE_SET_DISPLAY_POWER = 10;
+    private static final int TYPE_UHID_CREATE = 12;
+    private static final int TYPE_UHID_INPUT = 13;
+    private static final int TYPE_UHID_DESTROY = 14;
+    private static final int TYPE_START_APP = 16;
+    private static final int TYPE_RESET_VIDEO = 17;
+    private static final int CONTROL_MESSAGE_TYPES = 18;
+    private static final int RANDOM_POOL_SIZE = 4 * 1024 * 1024;
+
+    public static final class Config {
+        /** 0 picks a free port. */
+        public int port;
+        public int width = 1920;
+        public int height = 1080;
+        /** Frames per second; 0 sends as fast as the socket drains. */
+        public int fps = 60;
+        public int bitRate = 8_000_000;
+        public int gopSize = 60;
+        /** Raw video socket dump or {@code .scap} capture to replay instead of synthetic video. */
+        public File replay;
+    }
+
+    private final Config config;
+    private final ServerSocketChannel server;
+    private final long epochNanos = System.nanoTime();
+    private final AtomicLongArray controlMessages = new AtomicLongArray(CONTROL_MESSAGE_TYPES);
+    private volatile boolean running = true;
+    private volatile boolean resetRequested;
+    private volatile long videoPackets;
+    private volatile long videoBytes;
+    private Thread acceptThread;
+
+    public FakeScrcpyServer(Config config) throws IOException {
+        this.config = config;
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", config.port));
+    }
+
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Origin of the pts values: {@code pts * 1000 + epochNanos} is the {@link System#nanoTime()}
+     * at which the packet header was written.
+     */
+    public long epochNanos() {
+        return epochNanos;
+    }
+
+    public long videoPackets() {
+        return videoPackets;
+    }
+
+    public long videoBytes() {
+        return videoBytes;
+    }
+
+    public long controlMessages(int type) {
+        return controlMessages.get(type);
+    }
+
+    public void start() {
+        acceptThread = new Thread(this::acceptLoop, "fake-scrcpy-accept");
+        acceptThread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        if (acceptThread != null) {
+            acceptThread.interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        try {
+            while (running) {
+                SocketChannel video = server.accept();
+                video.socket().setTcpNoDelay(true);
+                SocketChannel control = server.accept();
+                control.socket().setTcpNoDelay(true);
+                Thread controlThread = new Thread(() -> controlLoop(control), "fake-scrcpy-control");
+                controlThread.setDaemon(true);
+                controlThread.start();
+                Thread videoThread = new Thread(() -> videoLoop(video), "fake-scrcpy-video");
+                videoThread.setDaemon(true);
+                videoThread.start();
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("fake server accept failed: " + e);
+            }
+        }
+    }
+
+    private void videoLoop(SocketChannel channel) {
+        try (SocketChannel video = channel) {
+            PacketSource source = config.replay != null ? new ReplaySource(config.replay) : new SyntheticSource(config);
+            ByteBuffer metadata = ByteBuffer.allocate(12);
+            metadata.putInt(source.codecId).putInt(source.width).putInt(source.height).flip();
+            writeFully(video, metadata);
+
+            ByteBuffer header = ByteBuffer.allocateDirect(12);
+            ByteBuffer[] packet = {header, null};
+            long frameIntervalNanos = config.fps > 0 ? 1_000_000_000L / config.fps : 0;
+            long nextFrameNanos = System.nanoTime();
+            while (running) {
+                if (resetRequested) {
+                    resetRequested = false;
+                    source.restartGop();
+                }
+                ByteBuffer body = source.next();
+                if (!source.lastWasConfig && frameIntervalNanos > 0) {
+                    nextFrameNanos += frameIntervalNanos;
+                    sleepUntil(nextFrameNanos);
+                }
+                long ptsUs = (System.nanoTime() - epochNanos) / 1000;
+                header.clear();
+                header.putLong(FrameHeader.toWire(source.lastWasConfig, source.lastWasKeyFrame, ptsUs));
+                header.putInt(body.remaining());
+                header.flip();
+                int size = body.remaining();
+                packet[1] = body;
+                while (header.hasRemaining() || body.hasRemaining()) {
+                    video.write(packet);
+                }
+                videoPackets++;
+                videoBytes += 12 + size;
+            }
+        } catch (IOException e) {
+            // Client went away.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void controlLoop(SocketChannel channel) {
+        String clipboard = "";
+        try (SocketChannel control = channel) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(control.socket().getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(control.socket().getOutputStream()));
+            while (running) {
+                int type = in.read();
+                if (type < 0) {
+                    return;
+                }
+                if (type >= CONTROL_MESSAGE_TYPES) {
+                    throw new IOException("Unknown control message type: " + type);
+                }
+                controlMessages.incrementAndGet(type);
+                switch (type) {
+                    case ControlMessageEncoder.TYPE_INJECT_KEYCODE:
+                        skip(in, ControlMessageEncoder.INJECT_KEYCODE_LENGTH - 1);
+                        break;
+                    case TYPE_INJECT_TEXT:
+                        skip(in, in.readInt());
+                        break;
+                    case ControlMessageEncoder.TYPE_INJECT_TOUCH_EVENT:
+                        skip(in, ControlMessageEncoder.INJECT_TOUCH_EVENT_LENGTH - 1);
+                        break;
+                    case TYPE_INJECT_SCROLL_EVENT:
+                        skip(in, 20);
+                        break;
+                    case TYPE_BACK_OR_SCREEN_ON:
+                    case TYPE_SET_DISPLAY_POWER:
+                        skip(in, 1);
+                        break;
+                    case ControlMessageEncoder.TYPE_GET_CLIPBOARD: {
+                        skip(in, 1);
+                        // Like the real server with autosync off: an empty clipboard gets no reply.
+                        if (clipboard.isEmpty()) {
+                            break;
+                        }
+                        byte[] text = clipboard.getBytes(StandardCharsets.UTF_8);
+                        out.writeByte(DEVICE_MSG_CLIPBOARD);
+                        out.writeInt(text.length);
+                        out.write(text);
+                        out.flush();
+                        break;
+                    }
+                    case ControlMessageEncoder.TYPE_SET_CLIPBOARD: {
+                        long sequence = in.readLong();
+                        in.readBoolean(); // paste
+                        byte[] text = new byte[in.readInt()];
+                        in.readFully(text);
+                        clipboard = new String(text, StandardCharsets.UTF_8);
+                        // Like the real server: sequence 0 means "no ack wanted".
+                        if (sequence != 0) {
+                            out.writeByte(DEVICE_MSG_ACK_CLIPBOARD);
+                            out.writeLong(sequence);
+                            out.flush();
+                        }
+                        break;
+                    }
+                    case TYPE_UHID_CREATE:
+                        skip(in, 6);
+                        skip(in, in.readUnsignedByte());
+                        skip(in, in.readUnsignedShort());
+                        break;
+                    case TYPE_UHID_INPUT:
+                        skip(in, 2);
+                        skip(in, in.readUnsignedShort());
+                        break;
+                    case TYPE_UHID_DESTROY:
+                        skip(in, 2);
+                        break;
+                    case TYPE_START_APP:
+                        skip(in, in.readUnsignedByte());
+                        break;
+                    case TYPE_RESET_VIDEO:
+                        resetRequested = true;
+                        break;
+                    default:
+                        // Panels, rotate, hard keyboard settings: no payload.
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            // Client went away.
+        }
+    }
+
+    private static void skip(DataInputStream in, int bytes) throws IOException {
+        if (bytes < 0) {
+            throw new IOException("Invalid length: " + bytes);
+        }
+        int skipped = 0;
+        while (skipped < bytes) {
+            int n = in.skipBytes(bytes - skipped);
+            if (n <= 0) {
+                throw new EOFException();
+            }
+            skipped += n;
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void sleepUntil(long deadlineNanos) throws InterruptedException {
+        long waitNanos = deadlineNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+
+    private abstract static class PacketSource {
+        int codecId;
+        int width;
+        int height;
+        boolean lastWasConfig;
+        boolean lastWasKeyFrame;
+
+        /**
+         * Returns the next packet body; the buffer is only valid until the next call.
+         */
+        abstract ByteBuffer next() throws IOException;
+
+        abstract void restartGop();
+    }
+
+    private static final class SyntheticSource extends PacketSource {
+        private static final byte[] CONFIG = {
+                0, 0, 0, 1, 0x67, 0x64, 0x00, 0x28, (byte) 0xac, (byte) 0xd9, 0x40, 0x78, 0x02, 0x27,
+                (byte) 0xe5, (byte) 0xc0, 0x44, 0x00, 0x00, 0x03, 0x00, 0x04, 0x00, 0x00, 0x03, 0x00,
+                (byte) 0xf0, 0x3c, 0x60, (byte) 0xc6, 0x58,
+                0, 0, 0, 1, 0x68, (byte) 0xeb, (byte) 0xe3, (byte) 0xcb, 0x22, (byte) 0xc0
+        };
+
+        private final ByteBuffer pool;
+        private final Random random = new Random(42);
+        private final int gopSize;
+        private final int keyFrameSize;
+        private final int frameSize;
+        private int frameInGop = -1;
+        private boolean configDue = true;
+
+        SyntheticSource(Config config) {
+            codecId = CODEC_ID_H264;
+            width = config.width;
+            height = config.height;
+            gopSize = Math.max(1, config.gopSize);
+            // Spread the per-GOP budget so a key frame is ~8 inter frames.
+            int fps = config.fps > 0 ? config.fps : 60;
+            long gopBytes = (long) config.bitRate / 8 * gopSize / fps;
+            frameSize = (int) Math.max(64, gopBytes / (gopSize + 7));
+            keyFrameSize = (int) Math.min(RANDOM_POOL_SIZE - 16, Math.max(64, gopBytes - (long) frameSize * (gopSize - 1)));
+            byte[] bytes = new byte[RANDOM_POOL_SIZE];
+            random.nextBytes(bytes);
+            pool = ByteBuffer.allocateDirect(RANDOM_POOL_SIZE);
+            pool.put(bytes).clear();
+        }
+
+        @Override
+        ByteBuffer next() {
+            if (configDue) {
+                configDue = false;
+                lastWasConfig = true;
+                lastWasKeyFrame = false;
+                frameInGop = -1;
+                return ByteBuffer.wrap(CONFIG);
+            }
+            frameInGop = (frameInGop + 1) % gopSize;
+            lastWasConfig = false;
+            lastWasKeyFrame = frameInGop == 0;
+            int size = lastWasKeyFrame ? keyFrameSize : frameSize - frameSize / 8 + random.nextInt(frameSize / 4 + 1);
+            int offset = random.nextInt(RANDOM_POOL_SIZE - size - 5);
+            // Annex-B start code + IDR (5) or non-IDR (1) slice header over random payload.
+            pool.put(offset, (byte) 0).put(offset + 1, (byte) 0).put(offset + 2, (byte) 0).put(offset + 3, (byte) 1);
+            pool.put(offset + 4, (byte) (lastWasKeyFrame ? 0x65 : 0x41));
+            ByteBuffer body = pool.duplicate();
+            body.limit(offset + size).position(offset);
+            return body;
+        }
+
+        @Override
+        void restartGop() {
+            configDue = true;
+        }
+    }
+
+    /**
+     * Loops over the packets of a recording, restarting from the first packet at the end.
+     */
+    private static final class ReplaySource extends PacketSource {
+        private final ByteBuffer stream;
+        private boolean restart;
+
+        ReplaySource(File file) throws IOException {
+            byte[] bytes;
+            if (file.getName().endsWith(".scap")) {
+                try (CaptureReplay replay = new CaptureReplay(file);
+                     InputStream in = replay.openStream(false)) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] chunk = new byte[64 * 1024];
+                    int n;
+                    while ((n = in.read(chunk)) > 0) {
+                        out.write(chunk, 0, n);
+                    }
+                    bytes = out.toByteArray();
+                }
+            } else {
+                bytes = Files.readAllBytes(file.toPath());
+            }
+            stream = ByteBuffer.wrap(bytes);
+            codecId = stream.getInt();
+            width = stream.getInt();
+            height = stream.getInt();
+            stream.mark();
+        }
+
+        @Override
+        ByteBuffer next() throws IOException {
+            if (restart || stream.remaining() < 12) {
+                restart = false;
+                stream.reset();
+            }
+            long ptsAndFlags = stream.getLong();
+            int size = stream.getInt();
+            if (size <= 0 || size > stream.remaining()) {
+                // Trailing partial packet: loop.
+                stream.reset();
+                return next();
+            }
+            lastWasConfig = FrameHeader.isConfig(ptsAndFlags);
+            lastWasKeyFrame = FrameHeader.isKeyFrame(ptsAndFlags);
+            ByteBuffer body = stream.slice();
+            body.limit(size);
+            stream.position(stream.position() + size);
+            return body;
+        }
+
+        @Override
+        void restartGop() {
+            // The recording starts with config + key frame.
+            restart = true;
+        }
+    }
+
+    /**
+     * Runs the server standalone, e.g. behind {@code adb reverse} for the Android client:
+     * {@code FakeScrcpyServer [port] [fps] [bitRate] [gopSize] [replayFile]}.
+     */
+    public static void main(String[] args) throws Exception {
+        Config config = new Config();
+        config.port = args.length > 0 ? Integer.parseInt(args[0]) : 27183;
+        config.fps = args.length > 1 ? Integer.parseInt(args[1]) : config.fps;
+        config.bitRate = args.length > 2 ? Integer.parseInt(args[2]) : config.bitRate;
+        config.gopSize = args.length > 3 ? Integer.parseInt(args[3]) : config.gopSize;
+        config.replay = args.length > 4 ? new File(args[4]) : null;
+        FakeScrcpyServer server = new FakeScrcpyServer(config);
+        server.start();
+        System.out.println("Fake scrcpy server listening on 127.0.0.1:" + server.port());
+    }
+}
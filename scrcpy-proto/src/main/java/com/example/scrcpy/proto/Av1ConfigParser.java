@@ -0,0 +1,237 @@
+package com.example.scrcpy.proto;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Builds the AV1 {@code csd-0} (an {@code AV1CodecConfigurationRecord}) from a config packet. The
+ * packet is either already such a record or a sequence of OBUs containing the sequence header.
+ */
+public final class Av1ConfigParser {
+    private static final int AV1C_MARKER_VERSION = 0x81;
+    private static final int OBU_SEQUENCE_HEADER = 1;
+
+    private Av1ConfigParser() {
+    }
+
+    public static ByteBuffer[] extractCsd(byte[] configPacket, int length) {
+        if (length >= 4 && (configPacket[0] & 0xFF) == AV1C_MARKER_VERSION) {
+            byte[] record = new byte[length];
+            System.arraycopy(configPacket, 0, record, 0, length);
+            return new ByteBuffer[]{ByteBuffer.wrap(record)};
+        }
+
+        int offset = 0;
+        while (offset < length) {
+            int header = configPacket[offset] & 0xFF;
+            int obuType = (header >> 3) & 0x0F;
+            boolean hasExtension = (header & 0x04) != 0;
+            boolean hasSizeField = (header & 0x02) != 0;
+            int headerLength = hasExtension ? 2 : 1;
+            int payloadOffset = offset + headerLength;
+            int payloadSize;
+            if (hasSizeField) {
+                long leb = readLeb128(configPacket, payloadOffset, length);
+                if (leb < 0) {
+                    return null;
+                }
+                payloadSize = (int) (leb >>> 8);
+                payloadOffset += (int) (leb & 0xFF);
+            } else {
+                payloadSize = length - payloadOffset;
+            }
+            if (payloadSize < 0 || payloadOffset + payloadSize > length) {
+                return null;
+            }
+            if (obuType == OBU_SEQUENCE_HEADER) {
+                return buildRecord(configPacket, offset, headerLength, payloadOffset, payloadSize);
+            }
+            offset = payloadOffset + payloadSize;
+        }
+        return null;
+    }
+
+    private static ByteBuffer[] buildRecord(byte[] data, int obuOffset, int headerLength,
+                                            int payloadOffset, int payloadSize) {
+        SequenceHeader sequence;
+        try {
+            sequence = parseSequenceHeader(data, payloadOffset, payloadSize);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        // configOBUs must carry obu_has_size_field, so the OBU is re-emitted with an explicit size.
+        byte[] size = encodeLeb128(payloadSize);
+        byte[] record = new byte[4 + headerLength + size.length + payloadSize];
+        record[0] = (byte) AV1C_MARKER_VERSION;
+        record[1] = (byte) ((sequence.profile << 5) | sequence.levelIdx);
+        record[2] = (byte) ((sequence.tier << 7)
+                | (sequence.highBitDepth ? 0x40 : 0)
+                | (sequence.twelveBit ? 0x20 : 0)
+                | (sequence.monochrome ? 0x10 : 0)
+                | (sequence.subsamplingX << 3)
+                | (sequence.subsamplingY << 2)
+                | sequence.chromaSamplePosition);
+        record[3] = 0; // no initial_presentation_delay
+        int offset = 4;
+        System.arraycopy(data, obuOffset, record, offset, headerLength);
+        record[offset] |= 0x02;
+        offset += headerLength;
+        System.arraycopy(size, 0, record, offset, size.length);
+        offset += size.length;
+        System.arraycopy(data, payloadOffset, record, offset, payloadSize);
+        return new ByteBuffer[]{ByteBuffer.wrap(record)};
+    }
+
+    private static final class SequenceHeader {
+        int profile;
+        int levelIdx;
+        int tier;
+        boolean highBitDepth;
+        boolean twelveBit;
+        boolean monochrome;
+        int subsamplingX;
+        int subsamplingY;
+        int chromaSamplePosition;
+    }
+
+    /**
+     * Parses sequence_header_obu() up to color_config(), per AV1 spec section 5.5.
+     */
+    private static SequenceHeader parseSequenceHeader(byte[] data, int offset, int length) {
+        BitReader bits = new BitReader(data, offset, length);
+        SequenceHeader sequence = new SequenceHeader();
+        sequence.profile = bits.readInt(3);
+        bits.skipBits(1); // still_picture
+        boolean reducedStillPictureHeader = bits.readBit();
+        if (reducedStillPictureHeader) {
+            sequence.levelIdx = bits.readInt(5);
+        } else {
+            boolean decoderModelInfoPresent = false;
+            int bufferDelayLength = 0;
+            if (bits.readBit()) { // timing_info_present_flag
+                bits.skipBits(64); // num_units_in_display_tick, time_scale
+                if (bits.readBit()) { // equal_picture_interval
+                    bits.readUvlc();
+                }
+                decoderModelInfoPresent = bits.readBit();
+                if (decoderModelInfoPresent) {
+                    bufferDelayLength = bits.readInt(5) + 1;
+                    bits.skipBits(32 + 5 + 5);
+                }
+            }
+            boolean initialDisplayDelayPresent = bits.readBit();
+            int operatingPoints = bits.readInt(5) + 1;
+            for (int i = 0; i < operatingPoints; i++) {
+                bits.skipBits(12); // operating_point_idc
+                int levelIdx = bits.readInt(5);
+                int tier = levelIdx > 7 ? bits.readInt(1) : 0;
+                if (i == 0) {
+                    sequence.levelIdx = levelIdx;
+                    sequence.tier = tier;
+                }
+                if (decoderModelInfoPresent && bits.readBit()) {
+                    bits.skipBits(2 * bufferDelayLength + 1);
+                }
+                if (initialDisplayDelayPresent && bits.readBit()) {
+                    bits.skipBits(4);
+                }
+            }
+        }
+
+        int frameWidthBits = bits.readInt(4) + 1;
+        int frameHeightBits = bits.readInt(4) + 1;
+        bits.skipBits(frameWidthBits + frameHeightBits);
+        boolean frameIdNumbersPresent = !reducedStillPictureHeader && bits.readBit();
+        if (frameIdNumbersPresent) {
+            bits.skipBits(4 + 3);
+        }
+        bits.skipBits(3); // use_128x128_superblock, enable_filter_intra, enable_intra_edge_filter
+        if (!reducedStillPictureHeader) {
+            bits.skipBits(4); // interintra, masked compound, warped motion, dual filter
+            boolean enableOrderHint = bits.readBit();
+            if (enableOrderHint) {
+                bits.skipBits(2); // enable_jnt_comp, enable_ref_frame_mvs
+            }
+            int forceScreenContentTools = bits.readBit() ? 2 : bits.readInt(1);
+            if (forceScreenContentTools > 0 && !bits.readBit()) {
+                bits.skipBits(1); // seq_force_integer_mv
+            }
+            if (enableOrderHint) {
+                bits.skipBits(3);
+            }
+        }
+        bits.skipBits(3); // enable_superres, enable_cdef, enable_restoration
+
+        parseColorConfig(bits, sequence);
+        return sequence;
+    }
+
+    private static void parseColorConfig(BitReader bits, SequenceHeader sequence) {
+        sequence.highBitDepth = bits.readBit();
+        if (sequence.profile == 2 && sequence.highBitDepth) {
+            sequence.twelveBit = bits.readBit();
+        }
+        sequence.monochrome = sequence.profile != 1 && bits.readBit();
+        int colorPrimaries = 2;
+        int transferCharacteristics = 2;
+        int matrixCoefficients = 2;
+        if (bits.readBit()) { // color_description_present_flag
+            colorPrimaries = bits.readInt(8);
+            transferCharacteristics = bits.readInt(8);
+            matrixCoefficients = bits.readInt(8);
+        }
+        if (sequence.monochrome) {
+            sequence.subsamplingX = 1;
+            sequence.subsamplingY = 1;
+            return;
+        }
+        if (colorPrimaries == 1 && transferCharacteristics == 13 && matrixCoefficients == 0) {
+            return; // sRGB: 4:4:4, full range
+        }
+        bits.skipBits(1); // color_range
+        if (sequence.profile == 0) {
+            sequence.subsamplingX = 1;
+            sequence.subsamplingY = 1;
+        } else if (sequence.profile > 1) {
+            if (sequence.twelveBit) {
+                sequence.subsamplingX = bits.readInt(1);
+                sequence.subsamplingY = sequence.subsamplingX == 1 ? bits.readInt(1) : 0;
+            } else {
+                sequence.subsamplingX = 1;
+            }
+        }
+        if (sequence.subsamplingX == 1 && sequence.subsamplingY == 1) {
+            sequence.chromaSamplePosition = bits.readInt(2);
+        }
+    }
+
+    /**
+     * Returns {@code (value << 8) | encodedLength}, or -1 if the field is truncated.
+     */
+    private static long readLeb128(byte[] data, int offset, int end) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            if (offset + i >= end) {
+                return -1;
+            }
+            int b = data[offset + i] & 0xFF;
+            value |= (long) (b & 0x7F) << (i * 7);
+            if ((b & 0x80) == 0) {
+                return (value << 8) | (i + 1);
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] encodeLeb128(int value) {
+        int length = 1;
+        while ((value >>> (7 * length)) != 0) {
+            length++;
+        }
+        byte[] out = new byte[length];
+        for (int i = 0; i < length; i++) {
+            out[i] = (byte) (((value >>> (7 * i)) & 0x7F) | (i + 1 < length ? 0x80 : 0));
+        }
+        return out;
+    }
+}
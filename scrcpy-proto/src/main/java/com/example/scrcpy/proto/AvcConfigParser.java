@@ -0,0 +1,31 @@
+package com.example.scrcpy.proto;
+
+import java.nio.ByteBuffer;
+
+public final class AvcConfigParser {
+    private AvcConfigParser() {
+    }
+
+    public static ByteBuffer[] extractCsd(byte[] configPacket) {
+        return extractCsd(configPacket, configPacket.length);
+    }
+
+    public static ByteBuffer[] extractCsd(byte[] configPacket, int length) {
+        NalUnitIndex index = new NalUnitIndex(VideoCodec.H264);
+        index.scan(configPacket, 0, length);
+        int sps = index.find(NalUnitIndex.AVC_NAL_SPS);
+        int pps = index.find(NalUnitIndex.AVC_NAL_PPS);
+        if (sps < 0 || pps <= sps) {
+            return null;
+        }
+
+        // csd-0 runs up to the PPS start code, csd-1 to the end of the packet.
+        int spsStart = index.startCodeOffset(sps);
+        int ppsStart = index.startCodeOffset(pps);
+        byte[] spsBytes = new byte[ppsStart - spsStart];
+        byte[] ppsBytes = new byte[length - ppsStart];
+        System.arraycopy(configPacket, spsStart, spsBytes, 0, spsBytes.length);
+        System.arraycopy(configPacket, ppsStart, ppsBytes, 0, ppsBytes.length);
+        return new ByteBuffer[]{ByteBuffer.wrap(spsBytes), ByteBuffer.wrap(ppsBytes)};
+    }
+}
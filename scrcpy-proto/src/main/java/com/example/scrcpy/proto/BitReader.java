@@ -0,0 +1,101 @@
+package com.example.scrcpy.proto;
+
+/**
+ * MSB-first bit reader over a byte range, for parsing codec headers.
+ */
+final class BitReader {
+    private final byte[] data;
+    private final int end;
+    private long bitPosition;
+
+    BitReader(byte[] data, int offset, int length) {
+        this.data = data;
+        this.end = offset + length;
+        this.bitPosition = (long) offset * 8;
+    }
+
+    /**
+     * Reader over the RBSP of a NAL unit: emulation prevention bytes ({@code 00 00 03}) are removed
+     * into a copy first.
+     */
+    static BitReader forRbsp(byte[] data, int offset, int length) {
+        byte[] rbsp = new byte[length];
+        int n = 0;
+        int zeros = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int b = data[i] & 0xFF;
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            rbsp[n++] = (byte) b;
+        }
+        return new BitReader(rbsp, 0, n);
+    }
+
+    boolean readBit() {
+        return readBits(1) != 0;
+    }
+
+    /**
+     * Reads up to 32 bits as an unsigned value.
+     */
+    long readBits(int count) {
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            int byteIndex = (int) (bitPosition >>> 3);
+            if (byteIndex >= end) {
+                throw new IllegalArgumentException("Bitstream truncated");
+            }
+            int bit = (data[byteIndex] >>> (7 - (int) (bitPosition & 7))) & 1;
+            value = (value << 1) | bit;
+            bitPosition++;
+        }
+        return value;
+    }
+
+    int readInt(int count) {
+        return (int) readBits(count);
+    }
+
+    void skipBits(int count) {
+        bitPosition += count;
+    }
+
+    /**
+     * H.264/H.265 ue(v): unsigned Exp-Golomb code.
+     */
+    int readUe() {
+        int leadingZeros = 0;
+        while (!readBit()) {
+            leadingZeros++;
+            if (leadingZeros > 31) {
+                throw new IllegalArgumentException("Invalid Exp-Golomb code");
+            }
+        }
+        return (int) (readBits(leadingZeros) + (1L << leadingZeros) - 1);
+    }
+
+    /**
+     * H.264/H.265 se(v): signed Exp-Golomb code.
+     */
+    int readSe() {
+        int codeNum = readUe();
+        return (codeNum & 1) != 0 ? (codeNum + 1) >>> 1 : -(codeNum >>> 1);
+    }
+
+    /**
+     * AV1 uvlc(): variable length unsigned code.
+     */
+    long readUvlc() {
+        int leadingZeros = 0;
+        while (!readBit()) {
+            leadingZeros++;
+        }
+        if (leadingZeros >= 32) {
+            return (1L << 32) - 1;
+        }
+        return readBits(leadingZeros) + (1L << leadingZeros) - 1;
+    }
+}
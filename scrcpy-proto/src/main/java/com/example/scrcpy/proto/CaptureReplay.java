@@ -0,0 +1,255 @@
+package com.example.scrcpy.proto;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped reader for {@link CaptureWriter} files. {@link #openStream} returns an
+ * {@link InputStream} with the original socket bytes, suitable for {@link ScrcpyVideoStreamReader},
+ * either as fast as it is read or paced by the recorded arrival times, from the first packet or any
+ * key frame.
+ */
+public final class CaptureReplay implements Closeable {
+    private final RandomAccessFile file;
+    private final MappedByteBuffer mapped;
+    private final VideoCodecMetadata metadata;
+    private final long startTimeMs;
+    private final int dataEnd;
+    private final int[] packetOffsets;
+    private final long[] arrivalNanos;
+    private final int[] flags;
+
+    public CaptureReplay(File captureFile) throws IOException {
+        file = new RandomAccessFile(captureFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Capture larger than 2 GiB: " + size);
+            }
+            if (size < CaptureWriter.HEADER_SIZE + 12 + CaptureWriter.FOOTER_SIZE) {
+                throw new IOException("Capture truncated: " + size + " bytes");
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (mapped.getInt(0) != CaptureWriter.MAGIC) {
+                throw new IOException("Not a scrcpy capture");
+            }
+            int version = mapped.getInt(4);
+            if (version != CaptureWriter.VERSION) {
+                throw new IOException("Unsupported capture version: " + version);
+            }
+            startTimeMs = mapped.getLong(8);
+            int header = CaptureWriter.HEADER_SIZE;
+            metadata = new VideoCodecMetadata(mapped.getInt(header), mapped.getInt(header + 4), mapped.getInt(header + 8));
+
+            int footer = (int) size - CaptureWriter.FOOTER_SIZE;
+            if (mapped.getInt(footer + 12) != CaptureWriter.FOOTER_MAGIC) {
+                throw new IOException("Capture has no index (recording not closed?)");
+            }
+            long indexOffset = mapped.getLong(footer);
+            int count = mapped.getInt(footer + 8);
+            if (count < 0 || indexOffset < header || indexOffset + (long) count * CaptureWriter.INDEX_ENTRY_SIZE != footer) {
+                throw new IOException("Corrupt capture index");
+            }
+            dataEnd = (int) indexOffset;
+            packetOffsets = new int[count];
+            arrivalNanos = new long[count];
+            flags = new int[count];
+            for (int i = 0; i < count; i++) {
+                int entry = dataEnd + i * CaptureWriter.INDEX_ENTRY_SIZE;
+                packetOffsets[i] = (int) mapped.getLong(entry);
+                arrivalNanos[i] = mapped.getLong(entry + 8);
+                flags[i] = mapped.getInt(entry + 16);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public VideoCodecMetadata codecMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Wall-clock time at which the capture started.
+     */
+    public long startTimeMs() {
+        return startTimeMs;
+    }
+
+    public int packetCount() {
+        return packetOffsets.length;
+    }
+
+    /**
+     * Arrival time of {@code packet}, in nanoseconds since the first packet.
+     */
+    public long arrivalNanos(int packet) {
+        return arrivalNanos[packet];
+    }
+
+    public boolean isConfig(int packet) {
+        return (flags[packet] & CaptureWriter.FLAG_CONFIG) != 0;
+    }
+
+    public boolean isKeyFrame(int packet) {
+        return (flags[packet] & CaptureWriter.FLAG_KEY_FRAME) != 0;
+    }
+
+    /**
+     * Packets the recorder dropped right before {@code packet}, missing from the capture.
+     */
+    public int droppedBefore(int packet) {
+        return (flags[packet] & CaptureWriter.FLAG_GAP) != 0 ? flags[packet] >>> CaptureWriter.GAP_SHIFT : 0;
+    }
+
+    public long durationNanos() {
+        return arrivalNanos.length == 0 ? 0 : arrivalNanos[arrivalNanos.length - 1];
+    }
+
+    /**
+     * Returns the last key frame packet that arrived at or before {@code offsetNanos}, or the
+     * first key frame if there is none before it, or -1 if the capture has no key frame.
+     */
+    public int keyFrameAtOrBefore(long offsetNanos) {
+        int found = -1;
+        for (int i = 0; i < flags.length; i++) {
+            if (isKeyFrame(i)) {
+                if (found < 0 || arrivalNanos[i] <= offsetNanos) {
+                    found = i;
+                }
+                if (arrivalNanos[i] >= offsetNanos) {
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    public InputStream openStream(boolean paced) {
+        return openStream(0, paced);
+    }
+
+    /**
+     * Streams the capture from {@code startPacket}, which should be 0 or a key frame. The codec
+     * metadata comes first, then the latest config packet if the start packet is not preceded by
+     * one, so a fresh reader and decoder can start there.
+     */
+    public InputStream openStream(int startPacket, boolean paced) {
+        if (startPacket < 0 || (startPacket > 0 && startPacket >= packetOffsets.length)) {
+            throw new IndexOutOfBoundsException("Packet " + startPacket + " of " + packetOffsets.length);
+        }
+        if (startPacket > 0 && isConfig(startPacket - 1)) {
+            startPacket--;
+        }
+        int config = -1;
+        if (startPacket > 0 && !isConfig(startPacket)) {
+            for (int i = startPacket - 1; i >= 0; i--) {
+                if (isConfig(i)) {
+                    config = i;
+                    break;
+                }
+            }
+        }
+
+        int configLength = config >= 0 ? packetOffsets[config + 1] - packetOffsets[config] : 0;
+        ByteBuffer prelude = ByteBuffer.allocate(12 + configLength);
+        ByteBuffer source = mapped.duplicate();
+        source.limit(CaptureWriter.HEADER_SIZE + 12).position(CaptureWriter.HEADER_SIZE);
+        prelude.put(source);
+        if (config >= 0) {
+            source.limit(packetOffsets[config] + configLength).position(packetOffsets[config]);
+            prelude.put(source);
+        }
+        prelude.flip();
+
+        ByteBuffer data = mapped.duplicate();
+        int dataStart = packetOffsets.length == 0 ? dataEnd : packetOffsets[startPacket];
+        data.limit(dataEnd).position(dataStart);
+        return new ReplayStream(prelude, data, startPacket, paced);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private final class ReplayStream extends InputStream {
+        private final ByteBuffer prelude;
+        private final ByteBuffer data;
+        private final int startPacket;
+        private final boolean paced;
+        private int nextPacket;
+        private long startNanos;
+
+        ReplayStream(ByteBuffer prelude, ByteBuffer data, int startPacket, boolean paced) {
+            this.prelude = prelude;
+            this.data = data;
+            this.startPacket = startPacket;
+            this.paced = paced;
+            nextPacket = startPacket;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (prelude.hasRemaining()) {
+                int n = Math.min(length, prelude.remaining());
+                prelude.get(target, offset, n);
+                return n;
+            }
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+            int limit = paced ? releasedLimit() : dataEnd;
+            int n = Math.min(length, limit - data.position());
+            data.get(target, offset, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return prelude.remaining() + (paced ? 0 : data.remaining());
+        }
+
+        /**
+         * Waits until the packet at the read position is due and returns the end of the released
+         * bytes.
+         */
+        private int releasedLimit() throws IOException {
+            if (startNanos == 0) {
+                startNanos = System.nanoTime();
+            }
+            while (nextPacket < packetOffsets.length && packetOffsets[nextPacket] <= data.position()) {
+                long due = startNanos + arrivalNanos[nextPacket] - arrivalNanos[startPacket];
+                long waitNanos = due - System.nanoTime();
+                if (waitNanos > 0) {
+                    try {
+                        Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Replay interrupted");
+                    }
+                }
+                nextPacket++;
+            }
+            return nextPacket < packetOffsets.length ? packetOffsets[nextPacket] : dataEnd;
+        }
+    }
+}
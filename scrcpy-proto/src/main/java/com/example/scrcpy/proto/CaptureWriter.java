@@ -0,0 +1,129 @@
+package com.example.scrcpy.proto;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * {@link StreamRecorder.TraceSink} writing a capture file: the video socket bytes exactly as scrcpy
+ * sent them (codec metadata, then framed packets) followed by a packet index with the reader's
+ * arrival times, so the session can be replayed with {@link CaptureReplay}. Packets the recorder
+ * had to drop are missing from the data and marked on the next packet's index entry.
+ *
+ * <p>Layout (big-endian):
+ * <pre>
+ * header  int magic "SCAP", int version, long start time (epoch ms)
+ * data    12-byte codec metadata, then per packet: long ptsAndFlags, int size, body
+ * index   per packet: long file offset of the packet header, long arrival nanos since the first
+ *         packet, int flags ({@link #FLAG_CONFIG}, {@link #FLAG_KEY_FRAME}, {@link #FLAG_GAP} with
+ *         the number of packets dropped before this one above {@link #GAP_SHIFT})
+ * footer  long index offset, int packet count, int magic "SCPI"
+ * </pre>
+ */
+public final class CaptureWriter implements StreamRecorder.TraceSink {
+    public static final int MAGIC = 0x53434150; // "SCAP"
+    public static final int FOOTER_MAGIC = 0x53435049; // "SCPI"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int INDEX_ENTRY_SIZE = 20;
+    public static final int FOOTER_SIZE = 16;
+    public static final int FLAG_CONFIG = 1;
+    public static final int FLAG_KEY_FRAME = 2;
+    public static final int FLAG_GAP = 4;
+    public static final int GAP_SHIFT = 8;
+    private static final int MAX_GAP = (1 << (32 - GAP_SHIFT - 1)) - 1;
+    static final int PACKET_HEADER_SIZE = 12;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long offset;
+    private long firstArrivalNanos;
+    private long[] packetOffsets = new long[1024];
+    private long[] arrivalNanos = new long[1024];
+    private int[] flags = new int[1024];
+    private int count;
+    private int gap;
+
+    public CaptureWriter(File file, VideoCodecMetadata metadata) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        channel = raf.getChannel();
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+        buffer.putInt(metadata.codecId).putInt(metadata.width).putInt(metadata.height);
+        offset = buffer.position();
+    }
+
+    @Override
+    public void writeGap(int packets) {
+        gap = (int) Math.min(MAX_GAP, (long) gap + packets);
+    }
+
+    @Override
+    public void writePacket(long ptsAndFlags, byte[] data, int length, long arrival) throws IOException {
+        if (count == 0) {
+            firstArrivalNanos = arrival;
+        }
+        if (count == packetOffsets.length) {
+            int capacity = count * 2;
+            packetOffsets = Arrays.copyOf(packetOffsets, capacity);
+            arrivalNanos = Arrays.copyOf(arrivalNanos, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+        packetOffsets[count] = offset;
+        arrivalNanos[count] = arrival - firstArrivalNanos;
+        flags[count] = (FrameHeader.isConfig(ptsAndFlags) ? FLAG_CONFIG : 0)
+                | (FrameHeader.isKeyFrame(ptsAndFlags) ? FLAG_KEY_FRAME : 0)
+                | (gap > 0 ? FLAG_GAP | gap << GAP_SHIFT : 0);
+        gap = 0;
+        count++;
+
+        ensureRemaining(PACKET_HEADER_SIZE);
+        buffer.putLong(ptsAndFlags).putInt(length);
+        if (length > buffer.remaining()) {
+            flush();
+        }
+        if (length > buffer.capacity()) {
+            ByteBuffer wrapped = ByteBuffer.wrap(data, 0, length);
+            while (wrapped.hasRemaining()) {
+                channel.write(wrapped);
+            }
+        } else {
+            buffer.put(data, 0, length);
+        }
+        offset += PACKET_HEADER_SIZE + length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            long indexOffset = offset;
+            for (int i = 0; i < count; i++) {
+                ensureRemaining(INDEX_ENTRY_SIZE);
+                buffer.putLong(packetOffsets[i]).putLong(arrivalNanos[i]).putInt(flags[i]);
+            }
+            ensureRemaining(FOOTER_SIZE);
+            buffer.putLong(indexOffset).putInt(count).putInt(FOOTER_MAGIC);
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.scrcpy.proto;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * {@link VideoStreamReader} over a {@link SocketChannel}. Socket data is pulled into one large
+ * direct receive buffer with as few reads as possible; headers are parsed in place and packets can
+ * be exposed as slices of that buffer. Only the unread tail is moved when the buffer wraps.
+ */
+public final class ChannelVideoStreamReader implements VideoStreamReader {
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    private static final int HEADER_SIZE = 12;
+
+    private final SocketChannel channel;
+    private final Selector selector;
+    private final long readTimeoutMs;
+    // Kept in read mode: [position, limit) holds received bytes not yet consumed.
+    private ByteBuffer buffer;
+    private long pendingPtsAndFlags;
+    private long pendingHeaderNanos;
+    private int pendingSize = -1;
+
+    public ChannelVideoStreamReader(SocketChannel channel, int bufferSize, long readTimeoutMs) throws IOException {
+        this.channel = channel;
+        this.readTimeoutMs = readTimeoutMs;
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, HEADER_SIZE));
+        buffer.limit(0);
+    }
+
+    @Override
+    public VideoCodecMetadata readCodecMetadata() throws IOException {
+        fill(HEADER_SIZE);
+        int codecId = buffer.getInt();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        return new VideoCodecMetadata(codecId, width, height);
+    }
+
+    @Override
+    public long readRawPacketHeader() throws IOException {
+        if (pendingSize >= 0) {
+            throw new IllegalStateException("Previous packet body not consumed");
+        }
+        fill(HEADER_SIZE);
+        long ptsAndFlags = buffer.getLong();
+        int packetSize = buffer.getInt();
+        if (packetSize <= 0 || packetSize > ScrcpyVideoStreamReader.MAX_PACKET_SIZE) {
+            throw new IOException("Invalid packet size: " + packetSize);
+        }
+        pendingPtsAndFlags = ptsAndFlags;
+        pendingHeaderNanos = System.nanoTime();
+        pendingSize = packetSize;
+        return ptsAndFlags;
+    }
+
+    @Override
+    public int pendingPacketSize() {
+        return pendingSize;
+    }
+
+    /**
+     * Returns the pending packet body as a read-only slice of the receive buffer. The slice is only
+     * valid until the next call on this reader.
+     */
+    public ByteBuffer readPacketSlice() throws IOException {
+        int size = requirePendingSize();
+        if (size > buffer.capacity()) {
+            grow(size);
+        }
+        fill(size);
+        ByteBuffer slice = buffer.slice();
+        slice.limit(size);
+        buffer.position(buffer.position() + size);
+        pendingSize = -1;
+        return slice.asReadOnlyBuffer();
+    }
+
+    @Override
+    public void readPacketBody(ByteBuffer target) throws IOException {
+        int size = requirePendingSize();
+        if (target.remaining() < size) {
+            throw new BufferOverflowException();
+        }
+        int buffered = Math.min(buffer.remaining(), size);
+        if (buffered > 0) {
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + buffered);
+            target.put(buffer);
+            buffer.limit(limit);
+        }
+        // Whatever is not buffered yet goes from the socket straight into the target.
+        int targetLimit = target.limit();
+        target.limit(target.position() + size - buffered);
+        try {
+            while (target.hasRemaining()) {
+                readChannel(target);
+            }
+        } finally {
+            target.limit(targetLimit);
+        }
+        pendingSize = -1;
+    }
+
+    @Override
+    public PooledPacket readPacketBody(PacketPool pool) throws IOException {
+        int size = requirePendingSize();
+        PooledPacket packet = pool.acquire(pendingPtsAndFlags, size);
+        try {
+            byte[] data = packet.data();
+            int offset = 0;
+            while (offset < size) {
+                if (!buffer.hasRemaining()) {
+                    fill(1);
+                }
+                int n = Math.min(buffer.remaining(), size - offset);
+                buffer.get(data, offset, n);
+                offset += n;
+            }
+        } catch (IOException e) {
+            packet.release();
+            throw e;
+        }
+        packet.setHeaderNanos(pendingHeaderNanos);
+        packet.setArrivalNanos(System.nanoTime());
+        pendingSize = -1;
+        return packet;
+    }
+
+    @Override
+    public void skipPacketBody() throws IOException {
+        int remaining = requirePendingSize();
+        while (remaining > 0) {
+            if (!buffer.hasRemaining()) {
+                fill(1);
+            }
+            int n = Math.min(buffer.remaining(), remaining);
+            buffer.position(buffer.position() + n);
+            remaining -= n;
+        }
+        pendingSize = -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        selector.close();
+        channel.close();
+    }
+
+    private void fill(int required) throws IOException {
+        while (buffer.remaining() < required) {
+            if (buffer.capacity() - buffer.limit() < required - buffer.remaining()) {
+                buffer.compact();
+                buffer.flip();
+            }
+            int readPosition = buffer.position();
+            buffer.position(buffer.limit());
+            buffer.limit(buffer.capacity());
+            try {
+                readChannel(buffer);
+            } finally {
+                buffer.limit(buffer.position());
+                buffer.position(readPosition);
+            }
+        }
+    }
+
+    private void readChannel(ByteBuffer target) throws IOException {
+        while (true) {
+            int n = channel.read(target);
+            if (n < 0) {
+                throw new EOFException("video channel closed");
+            }
+            if (n > 0) {
+                return;
+            }
+            if (selector.select(readTimeoutMs) == 0 && !Thread.currentThread().isInterrupted()) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            selector.selectedKeys().clear();
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IOException("Interrupted while reading video channel");
+            }
+        }
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Integer.highestOneBit(minCapacity - 1) << 1;
+        ByteBuffer larger = ByteBuffer.allocateDirect(capacity);
+        larger.put(buffer);
+        larger.flip();
+        buffer = larger;
+    }
+
+    private int requirePendingSize() {
+        if (pendingSize < 0) {
+            throw new IllegalStateException("No packet header read");
+        }
+        return pendingSize;
+    }
+}
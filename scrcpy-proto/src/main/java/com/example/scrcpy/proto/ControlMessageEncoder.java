@@ -0,0 +1,225 @@
+package com.example.scrcpy.proto;
+
+/**
+ * Encoders for scrcpy control messages (client to device). Every method writes one message at
+ * {@code offset} in {@code target} and returns the number of bytes written.
+ */
+public final class ControlMessageEncoder {
+    public static final int TYPE_INJECT_KEYCODE = 0;
+    public static final int TYPE_INJECT_TEXT = 1;
+    public static final int TYPE_INJECT_TOUCH_EVENT = 2;
+    public static final int TYPE_INJECT_SCROLL_EVENT = 3;
+    public static final int TYPE_BACK_OR_SCREEN_ON = 4;
+    public static final int TYPE_EXPAND_NOTIFICATION_PANEL = 5;
+    public static final int TYPE_EXPAND_SETTINGS_PANEL = 6;
+    public static final int TYPE_COLLAPSE_PANELS = 7;
+    public static final int TYPE_GET_CLIPBOARD = 8;
+    public static final int TYPE_SET_CLIPBOARD = 9;
+    public static final int TYPE_SET_DISPLAY_POWER = 10;
+    public static final int TYPE_ROTATE_DEVICE = 11;
+    public static final int TYPE_RESET_VIDEO = 17;
+
+    public static final int INJECT_KEYCODE_LENGTH = 14;
+    public static final int INJECT_TEXT_HEADER_LENGTH = 5;
+    /** Longest text the scrcpy client sends in one INJECT_TEXT message. */
+    public static final int MAX_INJECT_TEXT_BYTES = 300;
+    public static final int INJECT_TOUCH_EVENT_LENGTH = 32;
+    public static final int INJECT_SCROLL_EVENT_LENGTH = 21;
+    /** Scroll deltas are clamped to this many notches per message. */
+    public static final float MAX_SCROLL_DELTA = 16f;
+    public static final int BACK_OR_SCREEN_ON_LENGTH = 2;
+    /** Expand/collapse panels and rotate: the type byte alone. */
+    public static final int EMPTY_MESSAGE_LENGTH = 1;
+    public static final int SET_DISPLAY_POWER_LENGTH = 2;
+    public static final int GET_CLIPBOARD_LENGTH = 2;
+    public static final int SET_CLIPBOARD_HEADER_LENGTH = 14;
+    public static final int RESET_VIDEO_LENGTH = 1;
+    public static final int MAX_CLIPBOARD_TEXT_BYTES = (1 << 18) - SET_CLIPBOARD_HEADER_LENGTH;
+
+    public static final int COPY_KEY_NONE = 0;
+
+    private ControlMessageEncoder() {
+    }
+
+    public static int writeInjectKeycode(byte[] target, int offset, int action, int keyCode, int repeat, int metaState) {
+        target[offset] = (byte) TYPE_INJECT_KEYCODE;
+        target[offset + 1] = (byte) action;
+        writeInt(target, offset + 2, keyCode);
+        writeInt(target, offset + 6, repeat);
+        writeInt(target, offset + 10, metaState);
+        return INJECT_KEYCODE_LENGTH;
+    }
+
+    /**
+     * {@code length} bytes of UTF-8 {@code text}, at most {@link #MAX_INJECT_TEXT_BYTES}. The
+     * device types it as if from a keyboard.
+     */
+    public static int writeInjectText(byte[] target, int offset, byte[] text, int textOffset, int length) {
+        target[offset] = (byte) TYPE_INJECT_TEXT;
+        writeInt(target, offset + 1, length);
+        System.arraycopy(text, textOffset, target, offset + INJECT_TEXT_HEADER_LENGTH, length);
+        return INJECT_TEXT_HEADER_LENGTH + length;
+    }
+
+    /**
+     * Position is clamped to the screen, screen size to u16 and pressure to [0, 1].
+     */
+    public static int writeInjectTouchEvent(byte[] target, int offset, int action, long pointerId,
+                                            int x, int y, int screenWidth, int screenHeight,
+                                            float pressure, int actionButton, int buttons) {
+        int clampedX = Math.max(0, Math.min(x, Math.max(0, screenWidth - 1)));
+        int clampedY = Math.max(0, Math.min(y, Math.max(0, screenHeight - 1)));
+        target[offset] = (byte) TYPE_INJECT_TOUCH_EVENT;
+        target[offset + 1] = (byte) action;
+        writeLong(target, offset + 2, pointerId);
+        writeInt(target, offset + 10, clampedX);
+        writeInt(target, offset + 14, clampedY);
+        writeShort(target, offset + 18, clampToU16(screenWidth));
+        writeShort(target, offset + 20, clampToU16(screenHeight));
+        writeShort(target, offset + 22, encodeU16FixedPoint(pressure));
+        writeInt(target, offset + 24, actionButton);
+        writeInt(target, offset + 28, buttons);
+        return INJECT_TOUCH_EVENT_LENGTH;
+    }
+
+    /**
+     * Deltas are in notches (as {@code MotionEvent.AXIS_VSCROLL}), fractional for high-resolution
+     * wheels and touchpads, clamped to {@link #MAX_SCROLL_DELTA}.
+     */
+    public static int writeInjectScrollEvent(byte[] target, int offset, int x, int y,
+                                             int screenWidth, int screenHeight,
+                                             float hscroll, float vscroll, int buttons) {
+        int clampedX = Math.max(0, Math.min(x, Math.max(0, screenWidth - 1)));
+        int clampedY = Math.max(0, Math.min(y, Math.max(0, screenHeight - 1)));
+        target[offset] = (byte) TYPE_INJECT_SCROLL_EVENT;
+        writeInt(target, offset + 1, clampedX);
+        writeInt(target, offset + 5, clampedY);
+        writeShort(target, offset + 9, clampToU16(screenWidth));
+        writeShort(target, offset + 11, clampToU16(screenHeight));
+        writeShort(target, offset + 13, encodeI16FixedPoint(hscroll / MAX_SCROLL_DELTA));
+        writeShort(target, offset + 15, encodeI16FixedPoint(vscroll / MAX_SCROLL_DELTA));
+        writeInt(target, offset + 17, buttons);
+        return INJECT_SCROLL_EVENT_LENGTH;
+    }
+
+    /**
+     * Back if the device screen is on, otherwise turns it on; sent for ACTION_DOWN and ACTION_UP.
+     */
+    public static int writeBackOrScreenOn(byte[] target, int offset, int action) {
+        target[offset] = (byte) TYPE_BACK_OR_SCREEN_ON;
+        target[offset + 1] = (byte) action;
+        return BACK_OR_SCREEN_ON_LENGTH;
+    }
+
+    public static int writeExpandNotificationPanel(byte[] target, int offset) {
+        target[offset] = (byte) TYPE_EXPAND_NOTIFICATION_PANEL;
+        return EMPTY_MESSAGE_LENGTH;
+    }
+
+    public static int writeExpandSettingsPanel(byte[] target, int offset) {
+        target[offset] = (byte) TYPE_EXPAND_SETTINGS_PANEL;
+        return EMPTY_MESSAGE_LENGTH;
+    }
+
+    public static int writeCollapsePanels(byte[] target, int offset) {
+        target[offset] = (byte) TYPE_COLLAPSE_PANELS;
+        return EMPTY_MESSAGE_LENGTH;
+    }
+
+    /**
+     * Turns the device display off (mirroring continues) or back on.
+     */
+    public static int writeSetDisplayPower(byte[] target, int offset, boolean on) {
+        target[offset] = (byte) TYPE_SET_DISPLAY_POWER;
+        target[offset + 1] = (byte) (on ? 1 : 0);
+        return SET_DISPLAY_POWER_LENGTH;
+    }
+
+    public static int writeRotateDevice(byte[] target, int offset) {
+        target[offset] = (byte) TYPE_ROTATE_DEVICE;
+        return EMPTY_MESSAGE_LENGTH;
+    }
+
+    public static int writeGetClipboard(byte[] target, int offset, int copyKey) {
+        target[offset] = (byte) TYPE_GET_CLIPBOARD;
+        target[offset + 1] = (byte) copyKey;
+        return GET_CLIPBOARD_LENGTH;
+    }
+
+    /**
+     * {@code textLength} must not exceed {@link #MAX_CLIPBOARD_TEXT_BYTES}.
+     */
+    public static int writeSetClipboard(byte[] target, int offset, long sequence, boolean paste,
+                                        byte[] text, int textLength) {
+        target[offset] = (byte) TYPE_SET_CLIPBOARD;
+        writeLong(target, offset + 1, sequence);
+        target[offset + 9] = (byte) (paste ? 1 : 0);
+        writeInt(target, offset + 10, textLength);
+        if (textLength > 0) {
+            System.arraycopy(text, 0, target, offset + SET_CLIPBOARD_HEADER_LENGTH, textLength);
+        }
+        return SET_CLIPBOARD_HEADER_LENGTH + textLength;
+    }
+
+    /**
+     * Sequence number of a message written by {@link #writeSetClipboard}; the device acknowledges it.
+     */
+    public static long readSetClipboardSequence(byte[] message, int offset) {
+        long value = 0;
+        for (int i = 1; i <= 8; i++) {
+            value = (value << 8) | (message[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Asks the server to restart the encoder, which then sends a new config packet and key frame.
+     */
+    public static int writeResetVideo(byte[] target, int offset) {
+        target[offset] = (byte) TYPE_RESET_VIDEO;
+        return RESET_VIDEO_LENGTH;
+    }
+
+    static int clampToU16(int value) {
+        if (value < 0) {
+            return 0;
+        }
+        return Math.min(value, 0xFFFF);
+    }
+
+    static int encodeU16FixedPoint(float value) {
+        float clamped = Math.max(0f, Math.min(1f, value));
+        return Math.round(clamped * 65535f);
+    }
+
+    /**
+     * Signed fixed point in [-1, 1); 1 maps to the largest positive value.
+     */
+    static int encodeI16FixedPoint(float value) {
+        float clamped = Math.max(-1f, Math.min(1f, value));
+        return Math.min((int) (clamped * 0x8000), 0x7FFF) & 0xFFFF;
+    }
+
+    static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) ((value >>> 24) & 0xFF);
+        target[offset + 1] = (byte) ((value >>> 16) & 0xFF);
+        target[offset + 2] = (byte) ((value >>> 8) & 0xFF);
+        target[offset + 3] = (byte) (value & 0xFF);
+    }
+
+    static void writeLong(byte[] target, int offset, long value) {
+        target[offset] = (byte) ((value >>> 56) & 0xFF);
+        target[offset + 1] = (byte) ((value >>> 48) & 0xFF);
+        target[offset + 2] = (byte) ((value >>> 40) & 0xFF);
+        target[offset + 3] = (byte) ((value >>> 32) & 0xFF);
+        target[offset + 4] = (byte) ((value >>> 24) & 0xFF);
+        target[offset + 5] = (byte) ((value >>> 16) & 0xFF);
+        target[offset + 6] = (byte) ((value >>> 8) & 0xFF);
+        target[offset + 7] = (byte) (value & 0xFF);
+    }
+
+    static void writeShort(byte[] target, int offset, int value) {
+        target[offset] = (byte) ((value >>> 8) & 0xFF);
+        target[offset + 1] = (byte) (value & 0xFF);
+    }
+}
@@ -0,0 +1,485 @@
+package com.example.scrcpy.proto;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free ring of control messages from any number of producer threads to one writer
+ * thread. Producers {@link #claim} a slot, encode the message straight into its preallocated
+ * buffer and {@link #publish} it; per-slot sequence numbers order the hand-off, so a fixed-size
+ * message costs no lock and no allocation. The writer drains everything published into one batch.
+ *
+ * <p>Touch MOVEs may only fill part of the ring; the rest is kept for messages that must not be
+ * dropped, so deciding what to drop is a single comparison. A MOVE turned away is not lost: it is
+ * held outside the ring as its pointer's latest position, replacing any older one held, and goes
+ * out at the end of the next batch. Within a batch, a MOVE followed by a newer MOVE of the same
+ * pointer (with no DOWN or UP of that pointer in between) is left out.
+ */
+public final class ControlMessageRing {
+    /** Largest message encoded in place; longer ones are published by reference. */
+    public static final int SLOT_BYTES = ControlMessageEncoder.INJECT_TOUCH_EVENT_LENGTH;
+    public static final int KIND_OTHER = 0;
+    /** Touch DOWN, UP or any non-MOVE action: a barrier for coalescing that pointer's MOVEs. */
+    public static final int KIND_TOUCH = 1;
+    public static final int KIND_TOUCH_MOVE = 2;
+
+    private static final long MAX_PARK_NANOS = 10_000_000L;
+    private static final int MAX_TRACKED_POINTERS = 16;
+    private static final int LATEST_EMPTY = 0;
+    private static final int LATEST_FULL = 1;
+    /** Being written by its pointer's producer or read by the consumer. */
+    private static final int LATEST_BUSY = 2;
+
+    private final int mask;
+    private final int moveLimit;
+    private final byte[][] slots;
+    private final byte[][] largePayloads;
+    private final int[] lengths;
+    private final int[] kinds;
+    private final long[] pointerIds;
+    /** Slot i is free for position p when it holds p, published when it holds p + 1. */
+    private final AtomicLongArray sequences;
+    /** Next position to claim; advanced by producers. */
+    private final AtomicLong tail = new AtomicLong();
+    /** Next position to drain; written by the consumer only. */
+    private final AtomicLong head = new AtomicLong();
+    private volatile Thread waitingConsumer;
+    /** Newest MOVE per pointer that found no room in the ring; see {@link #claimLatest}. */
+    private final byte[][] latestSlots = new byte[MAX_TRACKED_POINTERS][SLOT_BYTES];
+    private final int[] latestLengths = new int[MAX_TRACKED_POINTERS];
+    private final long[] latestPointerIds = new long[MAX_TRACKED_POINTERS];
+    /** Ring tail when each was held: its pointer's earlier messages all lie before it. */
+    private final long[] latestTails = new long[MAX_TRACKED_POINTERS];
+    private final AtomicIntegerArray latestStates = new AtomicIntegerArray(MAX_TRACKED_POINTERS);
+    /** Held MOVEs replaced by a newer one since the last batch. */
+    private final AtomicLong latestReplaced = new AtomicLong();
+
+    // Consumer only.
+    private byte[] batch;
+    private int batchMessages;
+    private int batchCoalesced;
+    private final boolean[] skipped;
+    private final long[] trackedPointers = new long[MAX_TRACKED_POINTERS];
+    private final byte[][] heldSlots = new byte[MAX_TRACKED_POINTERS][SLOT_BYTES];
+    private final int[] heldLengths = new int[MAX_TRACKED_POINTERS];
+    private final long[] heldPointerIds = new long[MAX_TRACKED_POINTERS];
+
+    /**
+     * @param capacity rounded up to a power of two
+     * @param moveShare fraction of the ring touch MOVEs may occupy
+     */
+    public ControlMessageRing(int capacity, double moveShare) {
+        if (capacity <= 1 || capacity > 1 << 16) {
+            throw new IllegalArgumentException("Invalid ring capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        moveLimit = Math.max(1, (int) (size * moveShare));
+        slots = new byte[size][SLOT_BYTES];
+        largePayloads = new byte[size][];
+        lengths = new int[size];
+        kinds = new int[size];
+        pointerIds = new long[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        skipped = new boolean[size];
+        batch = new byte[size * SLOT_BYTES];
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Claimed or published messages not yet drained; approximate while producers are active.
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * Producer side. Reserves the next slot and returns its position, or -1 if the ring is full (for
+     * a MOVE: if MOVEs may not take more of it). A claimed slot must be published, as the consumer
+     * waits for it before draining later ones.
+     */
+    public long claim(boolean move) {
+        long position = tail.get();
+        while (true) {
+            if (move && position - head.get() >= moveLimit) {
+                return -1;
+            }
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // The consumer has not drained this slot's previous message yet.
+                return -1;
+            } else {
+                // Another producer claimed it first.
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Producer side, for touch events. Like {@link #claim}, but keeps the pointer's MOVE held by
+     * {@link #claimLatest} in order: a claimed MOVE replaces it, and a DOWN or UP publishes it first
+     * (or is turned away with it still held if the ring is full). All touch events of one pointer
+     * must come from one thread.
+     */
+    public long claimTouch(long pointerId, boolean move) {
+        if (!move) {
+            return flushLatest(pointerId) ? claim(false) : -1;
+        }
+        long position = claim(true);
+        if (position >= 0) {
+            int index = takeLatest(pointerId);
+            if (index >= 0) {
+                latestStates.set(index, LATEST_EMPTY);
+                latestReplaced.incrementAndGet();
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Producer side. For a MOVE {@link #claimTouch} turned away: reserves the buffer holding the
+     * newest MOVE of {@code pointerId} outside the ring, replacing the one held, and returns its
+     * index, or -1 if as many other pointers hold one already. Encode into {@link #latestSlot} and
+     * {@link #publishLatest}.
+     */
+    public int claimLatest(long pointerId) {
+        int index = takeLatest(pointerId);
+        if (index >= 0) {
+            latestReplaced.incrementAndGet();
+            return index;
+        }
+        for (int i = 0; i < MAX_TRACKED_POINTERS; i++) {
+            if (latestStates.get(i) == LATEST_EMPTY && latestStates.compareAndSet(i, LATEST_EMPTY, LATEST_BUSY)) {
+                latestPointerIds[i] = pointerId;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Producer side. Buffer of {@code SLOT_BYTES} to encode the held MOVE into.
+     */
+    public byte[] latestSlot(int index) {
+        return latestSlots[index];
+    }
+
+    /**
+     * Producer side. Publishes the {@code length} bytes encoded into {@link #latestSlot}.
+     */
+    public void publishLatest(int index, int length) {
+        latestLengths[index] = length;
+        latestTails[index] = tail.get();
+        latestStates.set(index, LATEST_FULL);
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Moves the MOVE held for {@code pointerId}, if any, into the ring ahead of a DOWN or UP; false
+     * if the ring is full, leaving it held.
+     */
+    private boolean flushLatest(long pointerId) {
+        int index = takeLatest(pointerId);
+        if (index < 0) {
+            return true;
+        }
+        long position = claim(false);
+        if (position < 0) {
+            latestStates.set(index, LATEST_FULL);
+            return false;
+        }
+        System.arraycopy(latestSlots[index], 0, slot(position), 0, latestLengths[index]);
+        publish(position, latestLengths[index], KIND_TOUCH_MOVE, pointerId);
+        latestStates.set(index, LATEST_EMPTY);
+        return true;
+    }
+
+    /**
+     * Marks the MOVE held for {@code pointerId} busy and returns its index, or -1 if none is held.
+     * Waits out the consumer copying it, after which it is gone.
+     */
+    private int takeLatest(long pointerId) {
+        while (true) {
+            int index = -1;
+            for (int i = 0; i < MAX_TRACKED_POINTERS; i++) {
+                if (latestStates.get(i) != LATEST_EMPTY && latestPointerIds[i] == pointerId) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return -1;
+            }
+            if (latestStates.compareAndSet(index, LATEST_FULL, LATEST_BUSY)) {
+                if (latestPointerIds[index] == pointerId) {
+                    return index;
+                }
+                // Read the id while another pointer was taking over the buffer.
+                latestStates.set(index, LATEST_FULL);
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Producer side. Buffer of {@code SLOT_BYTES} to encode the claimed message into.
+     */
+    public byte[] slot(long position) {
+        return slots[(int) position & mask];
+    }
+
+    /**
+     * Producer side. Publishes the {@code length} bytes encoded into {@link #slot}.
+     */
+    public void publish(long position, int length, int kind, long pointerId) {
+        int index = (int) position & mask;
+        lengths[index] = length;
+        kinds[index] = kind;
+        pointerIds[index] = pointerId;
+        release(index, position);
+    }
+
+    /**
+     * Producer side. Publishes {@code payload}, which may be longer than a slot, by reference.
+     */
+    public void publishLarge(long position, byte[] payload) {
+        int index = (int) position & mask;
+        largePayloads[index] = payload;
+        lengths[index] = payload.length;
+        kinds[index] = KIND_OTHER;
+        release(index, position);
+    }
+
+    private void release(int index, long position) {
+        // A volatile store, not lazySet: the waiter check below must not move ahead of it.
+        sequences.set(index, position + 1);
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Consumer side of every ring in {@code rings}. Waits up to {@code timeoutNanos} until any of
+     * them has a published message; false on timeout or interrupt.
+     */
+    public static boolean awaitAny(long timeoutNanos, ControlMessageRing[] rings) {
+        if (isAnyReady(rings)) {
+            return true;
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        Thread current = Thread.currentThread();
+        for (ControlMessageRing ring : rings) {
+            ring.waitingConsumer = current;
+        }
+        try {
+            while (!isAnyReady(rings)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || current.isInterrupted()) {
+                    return false;
+                }
+                LockSupport.parkNanos(rings, Math.min(remaining, MAX_PARK_NANOS));
+            }
+            return true;
+        } finally {
+            for (ControlMessageRing ring : rings) {
+                ring.waitingConsumer = null;
+            }
+        }
+    }
+
+    private static boolean isAnyReady(ControlMessageRing[] rings) {
+        for (ControlMessageRing ring : rings) {
+            if (ring.isReady()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isReady() {
+        long h = head.get();
+        if (sequences.get((int) h & mask) == h + 1) {
+            return true;
+        }
+        for (int i = 0; i < MAX_TRACKED_POINTERS; i++) {
+            if (latestStates.get(i) == LATEST_FULL && latestTails[i] <= h) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Consumer side. Drains the published messages in order, up to {@code maxBytes} unless the
+     * first alone is larger, into {@link #batch()}, followed by the MOVEs held outside the ring and
+     * leaving out superseded MOVEs. Returns the batch length.
+     */
+    public int drainBatch(int maxBytes) {
+        long h = head.get();
+        int count = 0;
+        int bytes = 0;
+        while (count <= mask) {
+            long position = h + count;
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            if (count > 0 && bytes + lengths[index] > maxBytes) {
+                break;
+            }
+            bytes += lengths[index];
+            count++;
+        }
+        // Taken after the scan, and only once the scan covers everything its pointer sent before it.
+        int held = takeHeld(h + count);
+        for (int i = 0; i < held; i++) {
+            bytes += heldLengths[i];
+        }
+        int coalesced = markSuperseded(h, count, held);
+        if (bytes > batch.length) {
+            batch = new byte[bytes];
+        }
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            long position = h + i;
+            int index = (int) position & mask;
+            if (!skipped[i]) {
+                byte[] large = largePayloads[index];
+                System.arraycopy(large != null ? large : slots[index], 0, batch, length, lengths[index]);
+                length += lengths[index];
+            }
+            largePayloads[index] = null;
+            sequences.lazySet(index, position + mask + 1);
+        }
+        head.set(h + count);
+        for (int i = 0; i < held; i++) {
+            System.arraycopy(heldSlots[i], 0, batch, length, heldLengths[i]);
+            length += heldLengths[i];
+        }
+        batchMessages = count - coalesced + held;
+        batchCoalesced = coalesced + (int) latestReplaced.getAndSet(0);
+        return length;
+    }
+
+    /**
+     * Copies out and clears every held MOVE that is not busy and was held before {@code end};
+     * returns how many.
+     */
+    private int takeHeld(long end) {
+        int held = 0;
+        for (int i = 0; i < MAX_TRACKED_POINTERS; i++) {
+            if (latestStates.get(i) == LATEST_FULL && latestStates.compareAndSet(i, LATEST_FULL, LATEST_BUSY)) {
+                if (latestTails[i] > end) {
+                    latestStates.set(i, LATEST_FULL);
+                    continue;
+                }
+                heldPointerIds[held] = latestPointerIds[i];
+                heldLengths[held] = latestLengths[i];
+                System.arraycopy(latestSlots[i], 0, heldSlots[held], 0, latestLengths[i]);
+                held++;
+                latestStates.set(i, LATEST_EMPTY);
+            }
+        }
+        return held;
+    }
+
+    /**
+     * Walks the batch newest first, starting from the {@code held} MOVEs appended to it, marking
+     * each MOVE whose pointer already has a newer MOVE with no DOWN or UP of that pointer in
+     * between. Returns how many were marked.
+     */
+    private int markSuperseded(long h, int count, int held) {
+        System.arraycopy(heldPointerIds, 0, trackedPointers, 0, held);
+        int tracked = held;
+        int marked = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            int index = (int) (h + i) & mask;
+            skipped[i] = false;
+            int kind = kinds[index];
+            if (kind == KIND_OTHER) {
+                continue;
+            }
+            long pointerId = pointerIds[index];
+            int found = -1;
+            for (int j = 0; j < tracked; j++) {
+                if (trackedPointers[j] == pointerId) {
+                    found = j;
+                    break;
+                }
+            }
+            if (kind == KIND_TOUCH_MOVE) {
+                if (found >= 0) {
+                    skipped[i] = true;
+                    marked++;
+                } else if (tracked < MAX_TRACKED_POINTERS) {
+                    trackedPointers[tracked++] = pointerId;
+                }
+            } else if (found >= 0) {
+                // The MOVE before a DOWN or UP is the last position of that stroke: keep it.
+                trackedPointers[found] = trackedPointers[--tracked];
+            }
+        }
+        return marked;
+    }
+
+    /**
+     * Consumer side. Removes the next published message and returns it without copying it into
+     * {@link #batch()}, or returns null if there is none. Meant for large payloads written out in
+     * pieces.
+     */
+    public byte[] poll() {
+        long h = head.get();
+        int index = (int) h & mask;
+        if (sequences.get(index) != h + 1) {
+            return null;
+        }
+        byte[] payload = largePayloads[index];
+        if (payload == null) {
+            payload = Arrays.copyOf(slots[index], lengths[index]);
+        }
+        largePayloads[index] = null;
+        sequences.lazySet(index, h + mask + 1);
+        head.set(h + 1);
+        return payload;
+    }
+
+    /**
+     * Consumer side. The last batch; valid until the next {@link #drainBatch}.
+     */
+    public byte[] batch() {
+        return batch;
+    }
+
+    /**
+     * Consumer side. Messages in the last batch.
+     */
+    public int batchMessages() {
+        return batchMessages;
+    }
+
+    /**
+     * Consumer side. MOVEs left out of the last batch or replaced while held since the one before.
+     */
+    public int batchCoalesced() {
+        return batchCoalesced;
+    }
+}
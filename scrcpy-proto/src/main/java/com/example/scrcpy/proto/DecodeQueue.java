@@ -0,0 +1,138 @@
+package com.example.scrcpy.proto;
+
+/**
+ * {@link PacketRing} between the network reader and the decoder that sheds load when the decoder
+ * falls behind. A packet older than the latency budget when the decoder takes it is dropped if no
+ * other frame depends on it ({@code nal_ref_idc == 0}); if a key frame is already queued, every
+ * packet up to it is dropped instead. Config packets and key frames are never dropped.
+ *
+ * <p>{@link #put} is called by the reader thread, {@link #take} and {@link #clear} by the decoder
+ * thread. The counters may be read from any thread.
+ */
+public final class DecodeQueue {
+    private final PacketRing ring;
+    private final NalUnitIndex nalUnits;
+    private final long latencyBudgetNanos;
+    private boolean skippingToKeyFrame;
+    private volatile long droppedNonReference;
+    private volatile long droppedToKeyFrame;
+    private volatile long readerStalls;
+
+    /**
+     * @param latencyBudgetNanos maximum queueing delay before frames are dropped; 0 disables
+     *                           dropping
+     */
+    public DecodeQueue(VideoCodec codec, int capacity, long latencyBudgetNanos) {
+        ring = new PacketRing(capacity);
+        // AV1 has no nal_ref_idc; its frames are only dropped by skipping to a key frame.
+        nalUnits = codec == VideoCodec.AV1 ? null : new NalUnitIndex(codec);
+        this.latencyBudgetNanos = latencyBudgetNanos;
+    }
+
+    /**
+     * Reader side. Waits while the queue is full; returns false (and releases the packet) if
+     * interrupted or {@link #close closed}.
+     */
+    public boolean put(PooledPacket packet) {
+        if (ring.offer(packet)) {
+            return true;
+        }
+        readerStalls++;
+        if (ring.put(packet)) {
+            return true;
+        }
+        packet.release();
+        return false;
+    }
+
+    /**
+     * Decoder side. Returns the next packet to decode, waiting up to {@code timeoutNanos}, or null.
+     * The caller must release the returned packet.
+     */
+    public PooledPacket take(long timeoutNanos) {
+        while (true) {
+            PooledPacket packet = ring.poll(timeoutNanos);
+            if (packet == null) {
+                return null;
+            }
+            if (packet.isConfig() || packet.isKeyFrame()) {
+                skippingToKeyFrame = false;
+                return packet;
+            }
+            if (!skippingToKeyFrame && latencyBudgetNanos > 0
+                    && System.nanoTime() - packet.arrivalNanos() > latencyBudgetNanos) {
+                if (keyFrameQueued()) {
+                    skippingToKeyFrame = true;
+                } else if (isNonReference(packet)) {
+                    droppedNonReference++;
+                    packet.release();
+                    continue;
+                }
+            }
+            if (skippingToKeyFrame) {
+                droppedToKeyFrame++;
+                packet.release();
+                continue;
+            }
+            return packet;
+        }
+    }
+
+    /**
+     * Any thread. Fails the reader's waiting and later {@link #put}s, so a reader stuck behind a
+     * stalled decoder is let go when that decoder is released.
+     */
+    public void close() {
+        ring.close();
+    }
+
+    /**
+     * Decoder side. Drops everything queued; decoding resumes at the next key frame.
+     */
+    public void clear() {
+        int size = ring.size();
+        ring.clear();
+        if (size > 0) {
+            skippingToKeyFrame = true;
+        }
+    }
+
+    public int size() {
+        return ring.size();
+    }
+
+    public long droppedNonReference() {
+        return droppedNonReference;
+    }
+
+    public long droppedToKeyFrame() {
+        return droppedToKeyFrame;
+    }
+
+    /**
+     * Number of times the reader found the queue full and had to wait for the decoder.
+     */
+    public long readerStalls() {
+        return readerStalls;
+    }
+
+    private boolean keyFrameQueued() {
+        for (int i = 0; ; i++) {
+            PooledPacket queued = ring.peek(i);
+            if (queued == null) {
+                return false;
+            }
+            if (queued.isKeyFrame() || queued.isConfig()) {
+                return true;
+            }
+        }
+    }
+
+    private boolean isNonReference(PooledPacket packet) {
+        if (nalUnits == null) {
+            return false;
+        }
+        nalUnits.scan(packet.data(), 0, packet.size());
+        return nalUnits.isNonReference();
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.scrcpy.proto;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link StreamRecorder.Sink} writing the raw elementary stream (Annex-B for H.264/H.265, OBUs for
+ * AV1) plus a side index. Writes go through a large direct buffer so the file sees few, big,
+ * sequential writes.
+ *
+ * <p>Index layout (big-endian): magic {@code "SCIX"}, int version, then one 20-byte entry per
+ * packet: long stream offset, long ptsAndFlags, int size.
+ */
+public final class ElementaryStreamSink implements StreamRecorder.Sink {
+    public static final int INDEX_MAGIC = 0x53434958; // "SCIX"
+    public static final int INDEX_VERSION = 1;
+    public static final int INDEX_ENTRY_SIZE = 20;
+    private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+    private static final int INDEX_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel stream;
+    private final FileChannel index;
+    private final ByteBuffer streamBuffer = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+    private final ByteBuffer indexBuffer = ByteBuffer.allocateDirect(INDEX_BUFFER_SIZE);
+    private long streamOffset;
+
+    public ElementaryStreamSink(File streamFile, File indexFile) throws IOException {
+        stream = open(streamFile);
+        try {
+            index = open(indexFile);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+        indexBuffer.putInt(INDEX_MAGIC).putInt(INDEX_VERSION);
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        // RandomAccessFile rather than java.nio.file, which Android only has from API 26.
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        return raf.getChannel();
+    }
+
+    @Override
+    public void writePacket(long ptsAndFlags, byte[] data, int length, long arrivalNanos) throws IOException {
+        if (indexBuffer.remaining() < INDEX_ENTRY_SIZE) {
+            flush(index, indexBuffer);
+        }
+        indexBuffer.putLong(streamOffset).putLong(ptsAndFlags).putInt(length);
+
+        if (length > streamBuffer.remaining()) {
+            flush(stream, streamBuffer);
+        }
+        if (length > streamBuffer.capacity()) {
+            ByteBuffer wrapped = ByteBuffer.wrap(data, 0, length);
+            while (wrapped.hasRemaining()) {
+                stream.write(wrapped);
+            }
+        } else {
+            streamBuffer.put(data, 0, length);
+        }
+        streamOffset += length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush(stream, streamBuffer);
+            flush(index, indexBuffer);
+        } finally {
+            try {
+                stream.close();
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -1,8 +1,13 @@
 package com.example.scrcpy.proto;
 
+/**
+ * Decoded frame header. Hot paths should prefer the static accessors over the raw
+ * {@code ptsAndFlags} value, which need no object per frame.
+ */
 public final class FrameHeader {
     private static final long CONFIG_FLAG = 1L << 63;
     private static final long KEY_FRAME_FLAG = 1L << 62;
+    private static final long PTS_MASK = ~(3L << 62);
 
     public final boolean config;
     public final boolean keyFrame;
@@ -17,9 +22,22 @@ public final class FrameHeader {
     }
 
     public static FrameHeader fromWire(long ptsAndFlags, int packetSize) {
-        boolean config = (ptsAndFlags & CONFIG_FLAG) != 0;
-        boolean keyFrame = (ptsAndFlags & KEY_FRAME_FLAG) != 0;
-        long ptsUs = ptsAndFlags & ~(3L << 62);
-        return new FrameHeader(config, keyFrame, ptsUs, packetSize);
+        return new FrameHeader(isConfig(ptsAndFlags), isKeyFrame(ptsAndFlags), ptsUs(ptsAndFlags), packetSize);
+    }
+
+    public static boolean isConfig(long ptsAndFlags) {
+        return (ptsAndFlags & CONFIG_FLAG) != 0;
+    }
+
+    public static boolean isKeyFrame(long ptsAndFlags) {
+        return (ptsAndFlags & KEY_FRAME_FLAG) != 0;
+    }
+
+    public static long ptsUs(long ptsAndFlags) {
+        return ptsAndFlags & PTS_MASK;
+    }
+
+    public static long toWire(boolean config, boolean keyFrame, long ptsUs) {
+        return (config ? CONFIG_FLAG : 0) | (keyFrame ? KEY_FRAME_FLAG : 0) | (ptsUs & PTS_MASK);
     }
 }
@@ -0,0 +1,44 @@
+package com.example.scrcpy.proto;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Builds the HEVC {@code csd-0} (VPS + SPS + PPS, each with its Annex-B start code) from a config
+ * packet.
+ */
+public final class HevcConfigParser {
+    private static final int[] PARAMETER_SETS = {
+            NalUnitIndex.HEVC_NAL_VPS, NalUnitIndex.HEVC_NAL_SPS, NalUnitIndex.HEVC_NAL_PPS
+    };
+
+    private HevcConfigParser() {
+    }
+
+    public static ByteBuffer[] extractCsd(byte[] configPacket, int length) {
+        NalUnitIndex index = new NalUnitIndex(VideoCodec.H265);
+        index.scan(configPacket, 0, length);
+        int[] nals = new int[PARAMETER_SETS.length];
+        int total = 0;
+        for (int k = 0; k < nals.length; k++) {
+            int nal = index.find(PARAMETER_SETS[k]);
+            if (nal < 0 || index.length(nal) == 0) {
+                return null;
+            }
+            nals[k] = nal;
+            total += nalEnd(index, nal) - index.startCodeOffset(nal);
+        }
+        byte[] csd = new byte[total];
+        int offset = 0;
+        for (int nal : nals) {
+            int start = index.startCodeOffset(nal);
+            int n = nalEnd(index, nal) - start;
+            System.arraycopy(configPacket, start, csd, offset, n);
+            offset += n;
+        }
+        return new ByteBuffer[]{ByteBuffer.wrap(csd)};
+    }
+
+    private static int nalEnd(NalUnitIndex index, int nal) {
+        return index.offset(nal) + index.length(nal);
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.scrcpy.proto;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named counters, gauges and latency histograms shared by the video and control clients. Metrics
+ * are registered once up front; updating them afterwards is lock-free and allocation-free.
+ * Readers take a {@link Snapshot} and derive rates from two consecutive ones.
+ */
+public final class MetricsRegistry {
+    /**
+     * Read-only value sampled when a snapshot is taken, e.g. a queue depth.
+     */
+    public interface Gauge {
+        long value();
+    }
+
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * Gauge holding the last value set by its owner.
+     */
+    public static final class SettableGauge implements Gauge {
+        private volatile long value;
+
+        public void set(long value) {
+            this.value = value;
+        }
+
+        @Override
+        public long value() {
+            return value;
+        }
+    }
+
+    private final Map<String, Counter> counters = new LinkedHashMap<>();
+    private final Map<String, Gauge> gauges = new LinkedHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+
+    /**
+     * Returns the counter named {@code name}, creating it on first use.
+     */
+    public synchronized Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    public synchronized SettableGauge settableGauge(String name) {
+        SettableGauge gauge = new SettableGauge();
+        gauges.put(name, gauge);
+        return gauge;
+    }
+
+    /**
+     * Registers (or replaces) a gauge computed on demand.
+     */
+    public synchronized void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Registers (or replaces) a histogram owned elsewhere.
+     */
+    public synchronized void histogram(String name, LatencyHistogram histogram) {
+        histograms.put(name, histogram);
+    }
+
+    public synchronized Snapshot snapshot() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().value());
+        }
+        Map<String, LatencyHistogram.Snapshot> distributions = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            distributions.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(System.nanoTime(), System.currentTimeMillis(), values, distributions);
+    }
+
+    public static final class Snapshot {
+        public final long nanoTime;
+        public final long epochMillis;
+        private final Map<String, Long> values;
+        private final Map<String, LatencyHistogram.Snapshot> histograms;
+
+        Snapshot(long nanoTime, long epochMillis, Map<String, Long> values,
+                 Map<String, LatencyHistogram.Snapshot> histograms) {
+            this.nanoTime = nanoTime;
+            this.epochMillis = epochMillis;
+            this.values = values;
+            this.histograms = histograms;
+        }
+
+        /**
+         * Counter or gauge value, or 0 if there is no such metric.
+         */
+        public long value(String name) {
+            Long value = values.get(name);
+            return value != null ? value : 0;
+        }
+
+        public LatencyHistogram.Snapshot histogram(String name) {
+            return histograms.get(name);
+        }
+
+        /**
+         * Per-second rate of counter {@code name} since {@code previous}; for a histogram name, the
+         * rate of recorded samples.
+         */
+        public double rate(String name, Snapshot previous) {
+            if (previous == null || nanoTime <= previous.nanoTime) {
+                return 0;
+            }
+            long delta;
+            LatencyHistogram.Snapshot current = histograms.get(name);
+            if (current != null) {
+                LatencyHistogram.Snapshot before = previous.histograms.get(name);
+                delta = current.count - (before != null ? before.count : 0);
+            } else {
+                delta = value(name) - previous.value(name);
+            }
+            // A counter that went backwards was reset with a new session.
+            return Math.max(0, delta) * 1e9 / (nanoTime - previous.nanoTime);
+        }
+
+        /**
+         * One-line JSON object with every value and histogram; {@code rates} are added as
+         * {@code "<name>.per_s"} when {@code previous} is given.
+         */
+        public String toJson(Snapshot previous, String... rates) {
+            StringBuilder json = new StringBuilder(512);
+            json.append("{\"time_ms\":").append(epochMillis);
+            for (Map.Entry<String, Long> entry : values.entrySet()) {
+                json.append(",\"").append(entry.getKey()).append("\":").append(entry.getValue());
+            }
+            if (previous != null) {
+                for (String name : rates) {
+                    json.append(",\"").append(name).append(".per_s\":")
+                            .append(String.format(Locale.US, "%.2f", rate(name, previous)));
+                }
+            }
+            for (Map.Entry<String, LatencyHistogram.Snapshot> entry : histograms.entrySet()) {
+                LatencyHistogram.Snapshot h = entry.getValue();
+                json.append(",\"").append(entry.getKey()).append("\":{\"count\":").append(h.count)
+                        .append(",\"mean_ns\":").append(h.meanNanos)
+                        .append(",\"p50_ns\":").append(h.p50Nanos)
+                        .append(",\"p95_ns\":").append(h.p95Nanos)
+                        .append(",\"p99_ns\":").append(h.p99Nanos)
+                        .append(",\"max_ns\":").append(h.maxNanos).append('}');
+            }
+            return json.append('}').toString();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.scrcpy.proto;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reusable index of the NAL units in an Annex-B (H.264 or H.265) packet. {@link #scan} finds start
+ * codes eight bytes at a time and records offsets, lengths and header fields without copying the
+ * data; the index is overwritten by the next scan.
+ *
+ * <p>Offsets are absolute indexes into the scanned buffer (or array). A NAL unit's
+ * {@link #offset(int)} is its first header byte; {@link #startCodeOffset(int)} includes the
+ * preceding 3- or 4-byte start code.
+ */
+public final class NalUnitIndex {
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    public static final int AVC_NAL_SLICE = 1;
+    public static final int AVC_NAL_IDR = 5;
+    public static final int AVC_NAL_SPS = 7;
+    public static final int AVC_NAL_PPS = 8;
+    public static final int HEVC_NAL_VPS = 32;
+    public static final int HEVC_NAL_SPS = 33;
+    public static final int HEVC_NAL_PPS = 34;
+
+    private final boolean hevc;
+    private int[] startCodeOffsets = new int[16];
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+    private int[] types = new int[16];
+    private int[] refIdcs = new int[16];
+    private int count;
+    private ByteBuffer wrapped;
+
+    public NalUnitIndex(VideoCodec codec) {
+        if (codec == VideoCodec.AV1) {
+            throw new IllegalArgumentException("AV1 is not an Annex-B format");
+        }
+        hevc = codec == VideoCodec.H265;
+    }
+
+    public int scan(byte[] data, int offset, int length) {
+        // Keep one wrapper per backing array so pooled buffers are scanned without allocating.
+        if (wrapped == null || wrapped.array() != data) {
+            wrapped = ByteBuffer.wrap(data);
+        }
+        return scan(wrapped, offset, offset + length);
+    }
+
+    /**
+     * Indexes {@code [position, limit)} of {@code data} without moving its position.
+     */
+    public int scan(ByteBuffer data) {
+        return scan(data, data.position(), data.limit());
+    }
+
+    private int scan(ByteBuffer data, int from, int to) {
+        count = 0;
+        int i = from;
+        while (true) {
+            int codeStart = findStartCode(data, i, to);
+            if (codeStart < 0) {
+                break;
+            }
+            int nalStart = codeStart + 3;
+            if (codeStart > from && data.get(codeStart - 1) == 0) {
+                codeStart--;
+            }
+            if (count > 0) {
+                closeLast(codeStart);
+            }
+            if (nalStart >= to) {
+                break;
+            }
+            add(codeStart, nalStart, data.get(nalStart) & 0xFF);
+            i = nalStart;
+        }
+        if (count > 0 && lengths[count - 1] < 0) {
+            closeLast(to);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the index of the first byte of the next {@code 00 00 01} at or after {@code from}.
+     */
+    private static int findStartCode(ByteBuffer data, int from, int to) {
+        int i = from;
+        while (i + 8 <= to) {
+            long word = data.getLong(i);
+            if (((word - ONES) & ~word & HIGHS) == 0) {
+                // No zero byte in these 8 bytes, so no start code can begin in them.
+                i += 8;
+                continue;
+            }
+            int wordEnd = i + 8;
+            for (; i < wordEnd; i++) {
+                if (isStartCode(data, i, to)) {
+                    return i;
+                }
+            }
+        }
+        for (; i + 3 <= to; i++) {
+            if (isStartCode(data, i, to)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isStartCode(ByteBuffer data, int i, int to) {
+        return i + 3 <= to && data.get(i) == 0 && data.get(i + 1) == 0 && data.get(i + 2) == 1;
+    }
+
+    private void add(int startCodeOffset, int offset, int header) {
+        if (count == offsets.length) {
+            int capacity = count * 2;
+            startCodeOffsets = Arrays.copyOf(startCodeOffsets, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            types = Arrays.copyOf(types, capacity);
+            refIdcs = Arrays.copyOf(refIdcs, capacity);
+        }
+        startCodeOffsets[count] = startCodeOffset;
+        offsets[count] = offset;
+        lengths[count] = -1;
+        if (hevc) {
+            int type = (header >> 1) & 0x3F;
+            types[count] = type;
+            // HEVC has no nal_ref_idc; sub-layer non-reference pictures (TRAIL_N, TSA_N, ...) are the
+            // even VCL types below 16.
+            refIdcs[count] = type < 16 && (type & 1) == 0 ? 0 : 1;
+        } else {
+            types[count] = header & 0x1F;
+            refIdcs[count] = (header >> 5) & 0x03;
+        }
+        count++;
+    }
+
+    private void closeLast(int end) {
+        int last = count - 1;
+        if (lengths[last] < 0) {
+            lengths[last] = Math.max(0, end - offsets[last]);
+        }
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int startCodeOffset(int index) {
+        return startCodeOffsets[index];
+    }
+
+    public int offset(int index) {
+        return offsets[index];
+    }
+
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * {@code nal_unit_type}; see the {@code AVC_NAL_*} and {@code HEVC_NAL_*} constants.
+     */
+    public int type(int index) {
+        return types[index];
+    }
+
+    /**
+     * {@code nal_ref_idc} for H.264. For H.265, 0 for sub-layer non-reference pictures, else 1.
+     */
+    public int refIdc(int index) {
+        return refIdcs[index];
+    }
+
+    public boolean isVcl(int index) {
+        int type = types[index];
+        return hevc ? type < 32 : type >= 1 && type <= 5;
+    }
+
+    /**
+     * True if the last scan found slices and none of them is used for reference, so the packet can
+     * be dropped without corrupting later frames.
+     */
+    public boolean isNonReference() {
+        boolean slices = false;
+        for (int i = 0; i < count; i++) {
+            if (isVcl(i)) {
+                if (refIdcs[i] != 0) {
+                    return false;
+                }
+                slices = true;
+            }
+        }
+        return slices;
+    }
+
+    /**
+     * Returns the first NAL unit of {@code type}, or -1.
+     */
+    public int find(int type) {
+        for (int i = 0; i < count; i++) {
+            if (types[i] == type) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.scrcpy.proto;
+
+import java.util.ArrayDeque;
+
+/**
+ * Size-classed pool of packet buffers so the steady-state video path does not allocate.
+ * Buffers are bucketed by power-of-two capacity; every acquired packet must be released.
+ */
+public final class PacketPool {
+    private static final int MIN_CLASS_SHIFT = 14; // 16 KiB
+    private static final int MAX_CLASS_SHIFT = 22; // 4 MiB, see ScrcpyVideoStreamReader.MAX_PACKET_SIZE
+    private static final int DEFAULT_BUFFERS_PER_CLASS = 4;
+
+    private final ArrayDeque<byte[]>[] buffers;
+    private final ArrayDeque<PooledPacket> packets = new ArrayDeque<>();
+    private final int buffersPerClass;
+
+    public PacketPool() {
+        this(DEFAULT_BUFFERS_PER_CLASS);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public PacketPool(int buffersPerClass) {
+        this.buffersPerClass = Math.max(1, buffersPerClass);
+        buffers = new ArrayDeque[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new ArrayDeque<>(this.buffersPerClass);
+        }
+    }
+
+    public synchronized PooledPacket acquire(long ptsAndFlags, int size) {
+        int sizeClass = sizeClassOf(size);
+        byte[] data = buffers[sizeClass].pollFirst();
+        if (data == null) {
+            data = new byte[1 << (sizeClass + MIN_CLASS_SHIFT)];
+        }
+        PooledPacket packet = packets.pollFirst();
+        if (packet == null) {
+            packet = new PooledPacket(this);
+        }
+        packet.reset(ptsAndFlags, data, size);
+        return packet;
+    }
+
+    synchronized void release(PooledPacket packet) {
+        byte[] data = packet.data();
+        if (data == null) {
+            return;
+        }
+        ArrayDeque<byte[]> bucket = buffers[sizeClassOf(data.length)];
+        if (bucket.size() < buffersPerClass) {
+            bucket.addFirst(data);
+        }
+        packet.reset(0, null, 0);
+        if (packets.size() < buffersPerClass * buffers.length) {
+            packets.addFirst(packet);
+        }
+    }
+
+    private static int sizeClassOf(int size) {
+        if (size <= 0 || size > 1 << MAX_CLASS_SHIFT) {
+            throw new IllegalArgumentException("Invalid packet size: " + size);
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return Math.max(shift, MIN_CLASS_SHIFT) - MIN_CLASS_SHIFT;
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.scrcpy.proto;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free ring of packets between exactly one producer thread and one consumer thread.
+ * Each side only writes its own counter; a side that has to wait parks and is unparked by the
+ * other, so the hand-off costs no lock and no allocation.
+ */
+public final class PacketRing {
+    private static final long MAX_PARK_NANOS = 10_000_000L;
+
+    private final PooledPacket[] slots;
+    private final int mask;
+    /** Next slot to consume; written by the consumer only. */
+    private final AtomicLong head = new AtomicLong();
+    /** Next slot to fill; written by the producer only. */
+    private final AtomicLong tail = new AtomicLong();
+    private volatile Thread waitingConsumer;
+    private volatile Thread waitingProducer;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public PacketRing(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 16) {
+            throw new IllegalArgumentException("Invalid ring capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        slots = new PooledPacket[Math.max(size, 1)];
+        mask = slots.length - 1;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Number of queued packets; exact only when called by one of the two sides.
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Makes every later {@link #offer} or {@link #put} fail, and a {@link #put} waiting now return
+     * false. May be called from any thread.
+     */
+    public void close() {
+        closed = true;
+        Thread producer = waitingProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    /**
+     * Producer side. Returns false without blocking if the ring is full or closed.
+     */
+    public boolean offer(PooledPacket packet) {
+        if (closed) {
+            return false;
+        }
+        long t = tail.get();
+        if (t - head.get() == slots.length) {
+            return false;
+        }
+        slots[(int) t & mask] = packet;
+        // A volatile store, not lazySet: the waiter check below must not move ahead of it.
+        tail.set(t + 1);
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Producer side. Waits for a free slot; returns false if interrupted or closed.
+     */
+    public boolean put(PooledPacket packet) {
+        while (!offer(packet)) {
+            waitingProducer = Thread.currentThread();
+            if (size() == slots.length && !closed) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+            waitingProducer = null;
+            if (closed || Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Consumer side. Returns the oldest packet, or null if the ring is empty.
+     */
+    public PooledPacket poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        int slot = (int) h & mask;
+        PooledPacket packet = slots[slot];
+        slots[slot] = null;
+        head.set(h + 1);
+        Thread producer = waitingProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+        return packet;
+    }
+
+    /**
+     * Consumer side. Waits up to {@code timeoutNanos} for a packet; null on timeout or interrupt.
+     */
+    public PooledPacket poll(long timeoutNanos) {
+        PooledPacket packet = poll();
+        if (packet != null || timeoutNanos <= 0) {
+            return packet;
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (true) {
+            waitingConsumer = Thread.currentThread();
+            if (size() == 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                    waitingConsumer = null;
+                    return null;
+                }
+                LockSupport.parkNanos(this, Math.min(remaining, MAX_PARK_NANOS));
+            }
+            waitingConsumer = null;
+            packet = poll();
+            if (packet != null) {
+                return packet;
+            }
+        }
+    }
+
+    /**
+     * Consumer side. Returns the queued packet {@code ahead} positions after the head without
+     * removing it, or null.
+     */
+    public PooledPacket peek(int ahead) {
+        long h = head.get();
+        if (ahead < 0 || h + ahead >= tail.get()) {
+            return null;
+        }
+        return slots[(int) (h + ahead) & mask];
+    }
+
+    /**
+     * Consumer side. Releases every queued packet.
+     */
+    public void clear() {
+        PooledPacket packet;
+        while ((packet = poll()) != null) {
+            packet.release();
+        }
+    }
+}
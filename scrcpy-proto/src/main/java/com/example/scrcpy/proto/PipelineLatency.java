@@ -0,0 +1,155 @@
+package com.example.scrcpy.proto;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Per-stage latency of the video pipeline, from the monotonic timestamps a frame collects on its
+ * way from the socket to the screen:
+ * <pre>
+ * header read -> body complete -> codec queue -> codec output -> render release
+ * </pre>
+ * Nothing is allocated per frame. Each decode engine has its own {@link InFlight}, called from the
+ * engine thread, which keeps the in-flight timestamps in a small ring keyed by pts and records into
+ * the shared histograms; {@link #onReleased}, {@link #snapshot} and {@link #reset} may be called
+ * from any thread.
+ */
+public final class PipelineLatency {
+    public enum Stage {
+        /** Header read to body complete: time on the wire for the packet body. */
+        RECEIVE,
+        /** Body complete to codec queue: time in the decode queue and waiting for an input buffer. */
+        QUEUE,
+        /** Codec queue to codec output. */
+        DECODE,
+        /** Codec output to render release, including vsync pacing. */
+        RENDER,
+        /** Header read to render release. */
+        END_TO_END,
+        /**
+         * Body complete minus device pts, relative to a baseline that follows the smallest such
+         * transit but may rise slowly: network and sender jitter, free of the unknown clock offset
+         * between the two devices and of its drift.
+         */
+        TRANSIT_JITTER
+    }
+
+    private static final int IN_FLIGHT = 64;
+    // As in the app's frame pacer: lets the transit baseline rise slowly, so clock drift or a lasting
+    // route change is followed instead of counting as jitter from then on.
+    private static final long BASELINE_DRIFT_NANOS = 20_000L;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+    public PipelineLatency() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * In-flight state for one decode engine. Engines outlive a {@link #reset} and may be stopped
+     * without being joined, so none of this is shared between them.
+     */
+    public InFlight newInFlight() {
+        return new InFlight();
+    }
+
+    /**
+     * Timestamps of the frames one engine has queued but not yet decoded, and its transit baseline.
+     * Only used from that engine's thread.
+     */
+    public final class InFlight {
+        private final long[] pts = new long[IN_FLIGHT];
+        private final long[] headerNanos = new long[IN_FLIGHT];
+        private final long[] queuedNanos = new long[IN_FLIGHT];
+        private int next;
+        private long baselineTransitNanos = Long.MAX_VALUE;
+
+        private InFlight() {
+            Arrays.fill(pts, -1);
+        }
+
+        /**
+         * {@code packet} was queued to the codec at {@code queuedNanos}.
+         */
+        public void onQueued(PooledPacket packet, long queuedNanos) {
+            long header = packet.headerNanos();
+            long arrivalNanos = packet.arrivalNanos();
+            if (header != 0 && arrivalNanos != 0) {
+                histograms[Stage.RECEIVE.ordinal()].record(arrivalNanos - header);
+            }
+            if (arrivalNanos != 0) {
+                histograms[Stage.QUEUE.ordinal()].record(queuedNanos - arrivalNanos);
+                long transit = arrivalNanos - packet.ptsUs() * 1000;
+                baselineTransitNanos = Math.min(transit, baselineTransitNanos == Long.MAX_VALUE
+                        ? transit : baselineTransitNanos + BASELINE_DRIFT_NANOS);
+                histograms[Stage.TRANSIT_JITTER.ordinal()].record(transit - baselineTransitNanos);
+            }
+            int slot = next;
+            next = (slot + 1) % IN_FLIGHT;
+            pts[slot] = packet.ptsUs();
+            headerNanos[slot] = header;
+            this.queuedNanos[slot] = queuedNanos;
+        }
+
+        /**
+         * The frame with {@code ptsUs} came out of the codec at {@code decodedNanos}. Returns its
+         * header read time, to be passed to {@link #onReleased}, or 0 if unknown.
+         */
+        public long onDecoded(long ptsUs, long decodedNanos) {
+            // Only a few frames are in flight, so they are among the most recent entries.
+            for (int i = 1; i <= IN_FLIGHT; i++) {
+                int slot = (next - i + IN_FLIGHT) % IN_FLIGHT;
+                if (pts[slot] == ptsUs) {
+                    pts[slot] = -1;
+                    histograms[Stage.DECODE.ordinal()].record(decodedNanos - queuedNanos[slot]);
+                    return headerNanos[slot];
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Forgets the frames in flight and the transit baseline, e.g. when the engine is handed to
+         * another session whose pts start over.
+         */
+        public void reset() {
+            Arrays.fill(pts, -1);
+            baselineTransitNanos = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * A decoded frame was released to the surface for rendering at {@code releasedNanos}.
+     */
+    public void onReleased(long headerNanos, long decodedNanos, long releasedNanos) {
+        histograms[Stage.RENDER.ordinal()].record(releasedNanos - decodedNanos);
+        if (headerNanos != 0) {
+            histograms[Stage.END_TO_END.ordinal()].record(releasedNanos - headerNanos);
+        }
+    }
+
+    public LatencyHistogram histogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public Map<Stage, LatencyHistogram.Snapshot> snapshot() {
+        Map<Stage, LatencyHistogram.Snapshot> snapshot = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            snapshot.put(stage, histograms[stage.ordinal()].snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Clears all histograms. Engines may keep recording meanwhile; their in-flight state is their
+     * own and stays valid.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+}
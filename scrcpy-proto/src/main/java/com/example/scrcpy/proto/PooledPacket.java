@@ -0,0 +1,89 @@
+package com.example.scrcpy.proto;
+
+/**
+ * Packet whose body lives in a {@link PacketPool} buffer. Only the first {@link #size()} bytes of
+ * {@link #data()} are valid, and the packet must not be touched after {@link #release()}.
+ */
+public final class PooledPacket {
+    private final PacketPool pool;
+    private long ptsAndFlags;
+    private byte[] data;
+    private int size;
+    private long headerNanos;
+    private long arrivalNanos;
+    private int droppedBefore;
+
+    PooledPacket(PacketPool pool) {
+        this.pool = pool;
+    }
+
+    void reset(long ptsAndFlags, byte[] data, int size) {
+        this.ptsAndFlags = ptsAndFlags;
+        this.data = data;
+        this.size = size;
+        this.headerNanos = 0;
+        this.arrivalNanos = 0;
+        this.droppedBefore = 0;
+    }
+
+    void setHeaderNanos(long headerNanos) {
+        this.headerNanos = headerNanos;
+    }
+
+    void setArrivalNanos(long arrivalNanos) {
+        this.arrivalNanos = arrivalNanos;
+    }
+
+    /**
+     * Packets a {@link StreamRecorder} dropped right before this one.
+     */
+    int droppedBefore() {
+        return droppedBefore;
+    }
+
+    void setDroppedBefore(int droppedBefore) {
+        this.droppedBefore = droppedBefore;
+    }
+
+    public long ptsAndFlags() {
+        return ptsAndFlags;
+    }
+
+    public boolean isConfig() {
+        return FrameHeader.isConfig(ptsAndFlags);
+    }
+
+    public boolean isKeyFrame() {
+        return FrameHeader.isKeyFrame(ptsAndFlags);
+    }
+
+    public long ptsUs() {
+        return FrameHeader.ptsUs(ptsAndFlags);
+    }
+
+    /**
+     * {@link System#nanoTime()} at which the packet header was read, or 0 if not tracked.
+     */
+    public long headerNanos() {
+        return headerNanos;
+    }
+
+    /**
+     * {@link System#nanoTime()} at which the packet was received, or 0 if not tracked.
+     */
+    public long arrivalNanos() {
+        return arrivalNanos;
+    }
+
+    public byte[] data() {
+        return data;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void release() {
+        pool.release(this);
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.scrcpy.proto;
+
+import java.util.Arrays;
+
+/**
+ * Turns acknowledged control messages into round-trip times: the sender reports each sequence
+ * number when it is written, the reader when its ACK arrives. Probes, requests whose replies carry
+ * no sequence, are matched first in, first out instead. Samples go to a cumulative
+ * {@link LatencyHistogram} and to a window of the most recent ones, whose median tracks the link
+ * as it is now.
+ */
+public final class RoundTripTracker {
+    private static final int MAX_PENDING = 16;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final long[] pendingSequences = new long[MAX_PENDING];
+    private final long[] pendingSentNanos = new long[MAX_PENDING];
+    private final boolean[] pending = new boolean[MAX_PENDING];
+    private final long[] probeSentNanos = new long[MAX_PENDING];
+    private int probeHead;
+    private int probeCount;
+    private final long[] recent;
+    private final long[] recentAckNanos;
+    private final long[] sorted;
+    private int recentCount;
+    private int recentNext;
+    private long timeouts;
+
+    /**
+     * @param window number of recent samples the median is taken over
+     */
+    public RoundTripTracker(int window) {
+        recent = new long[window];
+        recentAckNanos = new long[window];
+        sorted = new long[window];
+    }
+
+    /**
+     * Cumulative over every connection.
+     */
+    public LatencyHistogram histogram() {
+        return histogram;
+    }
+
+    /**
+     * Forgets pending messages and recent samples, e.g. on a new connection.
+     */
+    public synchronized void reset() {
+        Arrays.fill(pending, false);
+        probeHead = 0;
+        probeCount = 0;
+        recentCount = 0;
+        recentNext = 0;
+    }
+
+    public synchronized void sent(long sequence, long nanoTime) {
+        int index = (int) (sequence & (MAX_PENDING - 1));
+        pendingSequences[index] = sequence;
+        pendingSentNanos[index] = nanoTime;
+        pending[index] = true;
+    }
+
+    /**
+     * Forgets {@code sequence}, e.g. when writing it failed; it then counts as neither a sample
+     * nor a timeout.
+     */
+    public synchronized void cancel(long sequence) {
+        int index = (int) (sequence & (MAX_PENDING - 1));
+        if (pendingSequences[index] == sequence) {
+            pending[index] = false;
+        }
+    }
+
+    /**
+     * Returns the round trip of {@code sequence}, or -1 if it was not pending.
+     */
+    public synchronized long acked(long sequence, long nanoTime) {
+        int index = (int) (sequence & (MAX_PENDING - 1));
+        if (!pending[index] || pendingSequences[index] != sequence) {
+            return -1;
+        }
+        long roundTrip = nanoTime - pendingSentNanos[index];
+        pending[index] = false;
+        record(roundTrip, nanoTime);
+        return roundTrip;
+    }
+
+    /**
+     * Records a probe written at {@code nanoTime}; returns false, recording nothing, if
+     * {@value #MAX_PENDING} probes are already waiting.
+     */
+    public synchronized boolean probeSent(long nanoTime) {
+        if (probeCount == MAX_PENDING) {
+            return false;
+        }
+        probeSentNanos[(probeHead + probeCount) & (MAX_PENDING - 1)] = nanoTime;
+        probeCount++;
+        return true;
+    }
+
+    /**
+     * Matches a reply to the oldest waiting probe and returns its round trip, or -1 if no probe
+     * was waiting.
+     */
+    public synchronized long probeAnswered(long nanoTime) {
+        if (probeCount == 0) {
+            return -1;
+        }
+        long roundTrip = nanoTime - probeSentNanos[probeHead];
+        probeHead = (probeHead + 1) & (MAX_PENDING - 1);
+        probeCount--;
+        record(roundTrip, nanoTime);
+        return roundTrip;
+    }
+
+    /**
+     * Number of probes still waiting for a reply. Probes waiting longer than {@code timeoutNanos}
+     * are given up on first; unlike ACKs they are not counted as timeouts, since a request the
+     * server may leave unanswered says nothing about the link.
+     */
+    public synchronized int pendingProbes(long nanoTime, long timeoutNanos) {
+        while (probeCount > 0 && nanoTime - probeSentNanos[probeHead] >= timeoutNanos) {
+            probeHead = (probeHead + 1) & (MAX_PENDING - 1);
+            probeCount--;
+        }
+        return probeCount;
+    }
+
+    private void record(long roundTrip, long nanoTime) {
+        histogram.record(roundTrip);
+        recent[recentNext] = roundTrip;
+        recentAckNanos[recentNext] = nanoTime;
+        recentNext = (recentNext + 1) % recent.length;
+        recentCount = Math.min(recentCount + 1, recent.length);
+    }
+
+    /**
+     * How long the oldest unacknowledged message has been waiting, or 0. Messages waiting longer
+     * than {@code timeoutNanos} are given up on and counted in {@link #timeouts()}.
+     */
+    public synchronized long oldestPendingNanos(long nanoTime, long timeoutNanos) {
+        long oldest = 0;
+        for (int i = 0; i < MAX_PENDING; i++) {
+            if (!pending[i]) {
+                continue;
+            }
+            long age = nanoTime - pendingSentNanos[i];
+            if (age >= timeoutNanos) {
+                pending[i] = false;
+                timeouts++;
+            } else {
+                oldest = Math.max(oldest, age);
+            }
+        }
+        return oldest;
+    }
+
+    public synchronized long timeouts() {
+        return timeouts;
+    }
+
+    public synchronized int recentCount() {
+        return recentCount;
+    }
+
+    /**
+     * Median of the recent samples, or 0 if there are none.
+     */
+    public synchronized long recentMedianNanos() {
+        return recentMedianNanos(0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Median of the recent samples completed less than {@code maxAgeNanos} before
+     * {@code nanoTime}, or 0 if there are none.
+     */
+    public synchronized long recentMedianNanos(long nanoTime, long maxAgeNanos) {
+        int count = 0;
+        for (int i = 0; i < recentCount; i++) {
+            if (maxAgeNanos == Long.MAX_VALUE || nanoTime - recentAckNanos[i] < maxAgeNanos) {
+                sorted[count++] = recent[i];
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        Arrays.sort(sorted, 0, count);
+        return sorted[count / 2];
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.scrcpy.proto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Push-style counterpart of {@link VideoStreamReader}: bytes are fed in arbitrary chunks and
+ * complete packets are emitted through a {@link Listener}. Partial metadata, header and body state
+ * is kept across {@link #feed(ByteBuffer)} calls, so no thread has to block on the source.
+ */
+public final class ScrcpyStreamDemuxer {
+    public interface Listener {
+        void onCodecMetadata(VideoCodecMetadata metadata);
+
+        /**
+         * {@code ptsAndFlags} is decoded with the {@link FrameHeader} static accessors; {@code data}
+         * holds exactly the packet body and is only valid during the callback.
+         */
+        void onPacket(long ptsAndFlags, ByteBuffer data);
+    }
+
+    private static final int STATE_METADATA = 0;
+    private static final int STATE_HEADER = 1;
+    private static final int STATE_BODY = 2;
+    private static final int HEADER_SIZE = 12;
+
+    private final Listener listener;
+    private final boolean expectCodecMetadata;
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE);
+    private ByteBuffer bodyBuffer = ByteBuffer.allocate(64 * 1024);
+    private long pendingPtsAndFlags;
+    private int pendingSize;
+    private int state;
+
+    public ScrcpyStreamDemuxer(Listener listener) {
+        this(listener, true);
+    }
+
+    public ScrcpyStreamDemuxer(Listener listener, boolean expectCodecMetadata) {
+        this.listener = listener;
+        this.expectCodecMetadata = expectCodecMetadata;
+        reset();
+    }
+
+    public void reset() {
+        state = expectCodecMetadata ? STATE_METADATA : STATE_HEADER;
+        headerBuffer.clear();
+        bodyBuffer.clear();
+        pendingSize = 0;
+    }
+
+    /**
+     * Consumes all remaining bytes of {@code chunk}.
+     */
+    public void feed(ByteBuffer chunk) throws IOException {
+        while (chunk.hasRemaining()) {
+            switch (state) {
+                case STATE_METADATA:
+                    if (fillHeader(chunk)) {
+                        VideoCodecMetadata metadata = new VideoCodecMetadata(
+                                headerBuffer.getInt(), headerBuffer.getInt(), headerBuffer.getInt());
+                        headerBuffer.clear();
+                        state = STATE_HEADER;
+                        listener.onCodecMetadata(metadata);
+                    }
+                    break;
+                case STATE_HEADER:
+                    if (fillHeader(chunk)) {
+                        long ptsAndFlags = headerBuffer.getLong();
+                        int packetSize = headerBuffer.getInt();
+                        headerBuffer.clear();
+                        if (packetSize <= 0 || packetSize > ScrcpyVideoStreamReader.MAX_PACKET_SIZE) {
+                            throw new IOException("Invalid packet size: " + packetSize);
+                        }
+                        pendingPtsAndFlags = ptsAndFlags;
+                        pendingSize = packetSize;
+                        state = STATE_BODY;
+                    }
+                    break;
+                case STATE_BODY:
+                    feedBody(chunk);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown state: " + state);
+            }
+        }
+    }
+
+    private boolean fillHeader(ByteBuffer chunk) {
+        int n = Math.min(headerBuffer.remaining(), chunk.remaining());
+        int limit = chunk.limit();
+        chunk.limit(chunk.position() + n);
+        headerBuffer.put(chunk);
+        chunk.limit(limit);
+        if (headerBuffer.hasRemaining()) {
+            return false;
+        }
+        headerBuffer.flip();
+        return true;
+    }
+
+    private void feedBody(ByteBuffer chunk) {
+        long ptsAndFlags = pendingPtsAndFlags;
+        int size = pendingSize;
+        if (bodyBuffer.position() == 0 && chunk.remaining() >= size) {
+            // Whole body already in the chunk: hand it out in place, without copying.
+            int start = chunk.position();
+            int limit = chunk.limit();
+            chunk.limit(start + size);
+            try {
+                emit(ptsAndFlags, chunk);
+            } finally {
+                chunk.limit(limit);
+                chunk.position(start + size);
+            }
+            return;
+        }
+
+        if (bodyBuffer.capacity() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(Integer.highestOneBit(size - 1) << 1);
+            bodyBuffer.flip();
+            larger.put(bodyBuffer);
+            bodyBuffer = larger;
+        }
+        int n = Math.min(size - bodyBuffer.position(), chunk.remaining());
+        int limit = chunk.limit();
+        chunk.limit(chunk.position() + n);
+        bodyBuffer.put(chunk);
+        chunk.limit(limit);
+        if (bodyBuffer.position() < size) {
+            return;
+        }
+        bodyBuffer.flip();
+        try {
+            emit(ptsAndFlags, bodyBuffer);
+        } finally {
+            bodyBuffer.clear();
+        }
+    }
+
+    private void emit(long ptsAndFlags, ByteBuffer data) {
+        pendingSize = 0;
+        state = STATE_HEADER;
+        listener.onPacket(ptsAndFlags, data);
+    }
+}
@@ -1,18 +1,27 @@
 package com.example.scrcpy.proto;
 
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
-public final class ScrcpyVideoStreamReader {
-    private static final int MAX_PACKET_SIZE = 4 * 1024 * 1024;
+public final class ScrcpyVideoStreamReader implements VideoStreamReader {
+    static final int MAX_PACKET_SIZE = 4 * 1024 * 1024;
+    private static final int SCRATCH_SIZE = 64 * 1024;
 
     private final DataInputStream input;
+    private byte[] scratch;
+    private long pendingPtsAndFlags;
+    private long pendingHeaderNanos;
+    private int pendingSize = -1;
 
     public ScrcpyVideoStreamReader(InputStream input) {
         this.input = new DataInputStream(input);
     }
 
+    @Override
     public VideoCodecMetadata readCodecMetadata() throws IOException {
         int codecId = input.readInt();
         int width = input.readInt();
@@ -21,14 +30,110 @@ public final class ScrcpyVideoStreamReader {
     }
 
     public Packet readPacket() throws IOException {
+        FrameHeader header = readPacketHeader();
+        byte[] data = new byte[header.packetSize];
+        input.readFully(data);
+        pendingSize = -1;
+        return new Packet(header, data);
+    }
+
+    @Override
+    public long readRawPacketHeader() throws IOException {
+        if (pendingSize >= 0) {
+            throw new IllegalStateException("Previous packet body not consumed");
+        }
         long ptsAndFlags = input.readLong();
         int packetSize = input.readInt();
         if (packetSize <= 0 || packetSize > MAX_PACKET_SIZE) {
             throw new IOException("Invalid packet size: " + packetSize);
         }
-        byte[] data = new byte[packetSize];
-        input.readFully(data);
-        return new Packet(FrameHeader.fromWire(ptsAndFlags, packetSize), data);
+        pendingPtsAndFlags = ptsAndFlags;
+        pendingHeaderNanos = System.nanoTime();
+        pendingSize = packetSize;
+        return ptsAndFlags;
+    }
+
+    @Override
+    public int pendingPacketSize() {
+        return pendingSize;
+    }
+
+    @Override
+    public void readPacketBody(ByteBuffer target) throws IOException {
+        int size = requirePendingSize();
+        if (target.remaining() < size) {
+            throw new BufferOverflowException();
+        }
+        if (target.hasArray()) {
+            int position = target.position();
+            input.readFully(target.array(), target.arrayOffset() + position, size);
+            target.position(position + size);
+        } else {
+            byte[] chunk = scratch();
+            int remaining = size;
+            while (remaining > 0) {
+                int n = input.read(chunk, 0, Math.min(chunk.length, remaining));
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                target.put(chunk, 0, n);
+                remaining -= n;
+            }
+        }
+        pendingSize = -1;
+    }
+
+    @Override
+    public PooledPacket readPacketBody(PacketPool pool) throws IOException {
+        int size = requirePendingSize();
+        PooledPacket packet = pool.acquire(pendingPtsAndFlags, size);
+        try {
+            input.readFully(packet.data(), 0, size);
+        } catch (IOException e) {
+            packet.release();
+            throw e;
+        }
+        packet.setHeaderNanos(pendingHeaderNanos);
+        packet.setArrivalNanos(System.nanoTime());
+        pendingSize = -1;
+        return packet;
+    }
+
+    @Override
+    public void skipPacketBody() throws IOException {
+        int remaining = requirePendingSize();
+        while (remaining > 0) {
+            int skipped = input.skipBytes(remaining);
+            if (skipped <= 0) {
+                byte[] chunk = scratch();
+                int n = input.read(chunk, 0, Math.min(chunk.length, remaining));
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                skipped = n;
+            }
+            remaining -= skipped;
+        }
+        pendingSize = -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private int requirePendingSize() {
+        if (pendingSize < 0) {
+            throw new IllegalStateException("No packet header read");
+        }
+        return pendingSize;
+    }
+
+    private byte[] scratch() {
+        if (scratch == null) {
+            scratch = new byte[SCRATCH_SIZE];
+        }
+        return scratch;
     }
 
     public static final class Packet {
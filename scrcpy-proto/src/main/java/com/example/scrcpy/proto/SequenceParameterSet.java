@@ -0,0 +1,65 @@
+package com.example.scrcpy.proto;
+
+/**
+ * Decoder-relevant fields of an H.264 or H.265 sequence parameter set, as returned by
+ * {@link SpsParser}. Values that the stream does not signal are -1.
+ */
+public final class SequenceParameterSet {
+    public final VideoCodec codec;
+    /** {@code profile_idc} (H.264) or {@code general_profile_idc} (H.265). */
+    public final int profileIdc;
+    /** {@code constraint_set0..5} flags (H.264) or {@code general_tier_flag} (H.265). */
+    public final int constraintFlags;
+    /** {@code level_idc}: level * 10 for H.264, level * 30 for H.265. */
+    public final int levelIdc;
+    public final int bitDepth;
+    /** Display size, after the cropping window. */
+    public final int width;
+    public final int height;
+    public final int maxNumReorderFrames;
+    public final int maxDecFrameBuffering;
+    /** VUI timing; 0 when absent. */
+    public final long numUnitsInTick;
+    public final long timeScale;
+
+    SequenceParameterSet(VideoCodec codec, int profileIdc, int constraintFlags, int levelIdc, int bitDepth,
+                         int width, int height, int maxNumReorderFrames, int maxDecFrameBuffering,
+                         long numUnitsInTick, long timeScale) {
+        this.codec = codec;
+        this.profileIdc = profileIdc;
+        this.constraintFlags = constraintFlags;
+        this.levelIdc = levelIdc;
+        this.bitDepth = bitDepth;
+        this.width = width;
+        this.height = height;
+        this.maxNumReorderFrames = maxNumReorderFrames;
+        this.maxDecFrameBuffering = maxDecFrameBuffering;
+        this.numUnitsInTick = numUnitsInTick;
+        this.timeScale = timeScale;
+    }
+
+    /**
+     * True when the stream guarantees output order equals decode order (no B-frames), so the decoder
+     * can output every frame as soon as it is decoded.
+     */
+    public boolean hasNoReordering() {
+        return maxNumReorderFrames == 0;
+    }
+
+    /**
+     * Frame rate from the VUI timing info, or 0 when not signalled.
+     */
+    public float frameRate() {
+        if (numUnitsInTick <= 0 || timeScale <= 0) {
+            return 0f;
+        }
+        // H.264 counts field ticks, two per frame.
+        return codec == VideoCodec.H264 ? timeScale / (2f * numUnitsInTick) : timeScale / (float) numUnitsInTick;
+    }
+
+    @Override
+    public String toString() {
+        return codec.serverName + " profile=" + profileIdc + " level=" + levelIdc + " " + width + "x" + height
+                + " reorder=" + maxNumReorderFrames + " dpb=" + maxDecFrameBuffering;
+    }
+}
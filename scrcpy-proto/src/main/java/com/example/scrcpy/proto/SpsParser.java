@@ -0,0 +1,249 @@
+package com.example.scrcpy.proto;
+
+/**
+ * Exp-Golomb parser for the SPS in an H.264 or H.265 config packet.
+ *
+ * <p>H.264 is parsed through the VUI, including timing and bitstream restrictions. H.265 is parsed
+ * up to the sub-layer ordering info, which carries the reorder and DPB sizes; its VUI is not read.
+ */
+public final class SpsParser {
+    private static final int AVC_PROFILE_BASELINE = 66;
+    private static final int AVC_EXTENDED_SAR = 255;
+
+    private SpsParser() {
+    }
+
+    /**
+     * Returns the first SPS of {@code configPacket}, or null if there is none, it cannot be parsed,
+     * or {@code codec} is not Annex-B.
+     */
+    public static SequenceParameterSet parse(VideoCodec codec, byte[] configPacket, int length) {
+        if (codec == VideoCodec.AV1) {
+            return null;
+        }
+        NalUnitIndex index = new NalUnitIndex(codec);
+        index.scan(configPacket, 0, length);
+        int nal = index.find(codec == VideoCodec.H265 ? NalUnitIndex.HEVC_NAL_SPS : NalUnitIndex.AVC_NAL_SPS);
+        if (nal < 0) {
+            return null;
+        }
+        BitReader bits = BitReader.forRbsp(configPacket, index.offset(nal), index.length(nal));
+        try {
+            return codec == VideoCodec.H265 ? parseHevc(bits) : parseAvc(bits);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static SequenceParameterSet parseAvc(BitReader bits) {
+        bits.skipBits(8); // NAL header
+        int profileIdc = bits.readInt(8);
+        int constraintFlags = bits.readInt(8);
+        int levelIdc = bits.readInt(8);
+        bits.readUe(); // seq_parameter_set_id
+
+        int chromaFormatIdc = 1;
+        boolean separateColourPlane = false;
+        int bitDepth = 8;
+        if (hasAvcChromaInfo(profileIdc)) {
+            chromaFormatIdc = bits.readUe();
+            if (chromaFormatIdc == 3) {
+                separateColourPlane = bits.readBit();
+            }
+            bitDepth = bits.readUe() + 8;
+            bits.readUe(); // bit_depth_chroma_minus8
+            bits.skipBits(1); // qpprime_y_zero_transform_bypass_flag
+            if (bits.readBit()) { // seq_scaling_matrix_present_flag
+                int lists = chromaFormatIdc == 3 ? 12 : 8;
+                for (int i = 0; i < lists; i++) {
+                    if (bits.readBit()) {
+                        skipScalingList(bits, i < 6 ? 16 : 64);
+                    }
+                }
+            }
+        }
+
+        bits.readUe(); // log2_max_frame_num_minus4
+        int picOrderCntType = bits.readUe();
+        if (picOrderCntType == 0) {
+            bits.readUe(); // log2_max_pic_order_cnt_lsb_minus4
+        } else if (picOrderCntType == 1) {
+            bits.skipBits(1); // delta_pic_order_always_zero_flag
+            bits.readSe(); // offset_for_non_ref_pic
+            bits.readSe(); // offset_for_top_to_bottom_field
+            int cycle = bits.readUe();
+            for (int i = 0; i < cycle; i++) {
+                bits.readSe();
+            }
+        }
+        bits.readUe(); // max_num_ref_frames
+        bits.skipBits(1); // gaps_in_frame_num_value_allowed_flag
+        int widthInMbs = bits.readUe() + 1;
+        int heightInMapUnits = bits.readUe() + 1;
+        boolean frameMbsOnly = bits.readBit();
+        if (!frameMbsOnly) {
+            bits.skipBits(1); // mb_adaptive_frame_field_flag
+        }
+        bits.skipBits(1); // direct_8x8_inference_flag
+
+        int frameHeightFactor = frameMbsOnly ? 1 : 2;
+        int width = widthInMbs * 16;
+        int height = heightInMapUnits * 16 * frameHeightFactor;
+        if (bits.readBit()) { // frame_cropping_flag
+            int chromaArrayType = separateColourPlane ? 0 : chromaFormatIdc;
+            int cropUnitX = chromaArrayType == 1 || chromaArrayType == 2 ? 2 : 1;
+            int cropUnitY = (chromaArrayType == 1 ? 2 : 1) * frameHeightFactor;
+            width -= (bits.readUe() + bits.readUe()) * cropUnitX;
+            height -= (bits.readUe() + bits.readUe()) * cropUnitY;
+        }
+
+        // Baseline has no B-slices, so nothing is ever reordered even without bitstream restrictions.
+        int maxNumReorderFrames = profileIdc == AVC_PROFILE_BASELINE ? 0 : -1;
+        int maxDecFrameBuffering = -1;
+        long numUnitsInTick = 0;
+        long timeScale = 0;
+        if (bits.readBit()) { // vui_parameters_present_flag
+            if (bits.readBit()) { // aspect_ratio_info_present_flag
+                if (bits.readInt(8) == AVC_EXTENDED_SAR) {
+                    bits.skipBits(32); // sar_width, sar_height
+                }
+            }
+            if (bits.readBit()) { // overscan_info_present_flag
+                bits.skipBits(1);
+            }
+            if (bits.readBit()) { // video_signal_type_present_flag
+                bits.skipBits(4); // video_format, video_full_range_flag
+                if (bits.readBit()) { // colour_description_present_flag
+                    bits.skipBits(24);
+                }
+            }
+            if (bits.readBit()) { // chroma_loc_info_present_flag
+                bits.readUe();
+                bits.readUe();
+            }
+            if (bits.readBit()) { // timing_info_present_flag
+                numUnitsInTick = bits.readBits(32);
+                timeScale = bits.readBits(32);
+                bits.skipBits(1); // fixed_frame_rate_flag
+            }
+            boolean nalHrd = bits.readBit();
+            if (nalHrd) {
+                skipHrdParameters(bits);
+            }
+            boolean vclHrd = bits.readBit();
+            if (vclHrd) {
+                skipHrdParameters(bits);
+            }
+            if (nalHrd || vclHrd) {
+                bits.skipBits(1); // low_delay_hrd_flag
+            }
+            bits.skipBits(1); // pic_struct_present_flag
+            if (bits.readBit()) { // bitstream_restriction_flag
+                bits.skipBits(1); // motion_vectors_over_pic_boundaries_flag
+                bits.readUe(); // max_bytes_per_pic_denom
+                bits.readUe(); // max_bits_per_mb_denom
+                bits.readUe(); // log2_max_mv_length_horizontal
+                bits.readUe(); // log2_max_mv_length_vertical
+                maxNumReorderFrames = bits.readUe();
+                maxDecFrameBuffering = bits.readUe();
+            }
+        }
+        return new SequenceParameterSet(VideoCodec.H264, profileIdc, constraintFlags, levelIdc, bitDepth,
+                width, height, maxNumReorderFrames, maxDecFrameBuffering, numUnitsInTick, timeScale);
+    }
+
+    private static SequenceParameterSet parseHevc(BitReader bits) {
+        bits.skipBits(16); // NAL header
+        bits.skipBits(4); // sps_video_parameter_set_id
+        int maxSubLayersMinus1 = bits.readInt(3);
+        bits.skipBits(1); // sps_temporal_id_nesting_flag
+
+        // profile_tier_level(1, sps_max_sub_layers_minus1)
+        bits.skipBits(2); // general_profile_space
+        int tierFlag = bits.readInt(1);
+        int profileIdc = bits.readInt(5);
+        bits.skipBits(32); // general_profile_compatibility_flags
+        bits.skipBits(48); // source/constraint flags and reserved bits
+        int levelIdc = bits.readInt(8);
+        boolean[] subLayerProfilePresent = new boolean[maxSubLayersMinus1];
+        boolean[] subLayerLevelPresent = new boolean[maxSubLayersMinus1];
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            subLayerProfilePresent[i] = bits.readBit();
+            subLayerLevelPresent[i] = bits.readBit();
+        }
+        if (maxSubLayersMinus1 > 0) {
+            bits.skipBits(2 * (8 - maxSubLayersMinus1)); // reserved_zero_2bits
+        }
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            if (subLayerProfilePresent[i]) {
+                bits.skipBits(88);
+            }
+            if (subLayerLevelPresent[i]) {
+                bits.skipBits(8);
+            }
+        }
+
+        bits.readUe(); // sps_seq_parameter_set_id
+        int chromaFormatIdc = bits.readUe();
+        boolean separateColourPlane = false;
+        if (chromaFormatIdc == 3) {
+            separateColourPlane = bits.readBit();
+        }
+        int width = bits.readUe();
+        int height = bits.readUe();
+        if (bits.readBit()) { // conformance_window_flag
+            int chromaArrayType = separateColourPlane ? 0 : chromaFormatIdc;
+            int subWidthC = chromaArrayType == 1 || chromaArrayType == 2 ? 2 : 1;
+            int subHeightC = chromaArrayType == 1 ? 2 : 1;
+            width -= (bits.readUe() + bits.readUe()) * subWidthC;
+            height -= (bits.readUe() + bits.readUe()) * subHeightC;
+        }
+        int bitDepth = bits.readUe() + 8;
+        bits.readUe(); // bit_depth_chroma_minus8
+        bits.readUe(); // log2_max_pic_order_cnt_lsb_minus4
+
+        // Keep the values of the highest sub-layer: they apply to the full stream.
+        boolean subLayerOrderingInfo = bits.readBit();
+        int maxDecPicBuffering = -1;
+        int maxNumReorderPics = -1;
+        for (int i = subLayerOrderingInfo ? 0 : maxSubLayersMinus1; i <= maxSubLayersMinus1; i++) {
+            maxDecPicBuffering = bits.readUe() + 1;
+            maxNumReorderPics = bits.readUe();
+            bits.readUe(); // sps_max_latency_increase_plus1
+        }
+        return new SequenceParameterSet(VideoCodec.H265, profileIdc, tierFlag, levelIdc, bitDepth,
+                width, height, maxNumReorderPics, maxDecPicBuffering, 0, 0);
+    }
+
+    private static boolean hasAvcChromaInfo(int profileIdc) {
+        switch (profileIdc) {
+            case 100: case 110: case 122: case 244: case 44:
+            case 83: case 86: case 118: case 128: case 138: case 139: case 134: case 135:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void skipScalingList(BitReader bits, int size) {
+        int lastScale = 8;
+        int nextScale = 8;
+        for (int j = 0; j < size; j++) {
+            if (nextScale != 0) {
+                nextScale = (lastScale + bits.readSe() + 256) % 256;
+            }
+            lastScale = nextScale == 0 ? lastScale : nextScale;
+        }
+    }
+
+    private static void skipHrdParameters(BitReader bits) {
+        int cpbCount = bits.readUe() + 1;
+        bits.skipBits(8); // bit_rate_scale, cpb_size_scale
+        for (int i = 0; i < cpbCount; i++) {
+            bits.readUe(); // bit_rate_value_minus1
+            bits.readUe(); // cpb_size_value_minus1
+            bits.skipBits(1); // cbr_flag
+        }
+        bits.skipBits(20); // delay and time offset lengths
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.scrcpy.proto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Walks a ladder of stream {@link Profile}s, best first, from one health {@link Sample} per
+ * interval. It steps down after a few consecutive degraded samples and up only after a long
+ * healthy run. A step up that is followed by a step down within {@link #FLAP_WINDOW_NANOS}
+ * doubles the healthy run required next time, so an unstable link settles on one profile instead
+ * of flapping. Not thread-safe.
+ */
+public final class StreamGovernor {
+    /**
+     * Server settings of one ladder step.
+     */
+    public static final class Profile {
+        /** Longest side in pixels, 0 for the device size. */
+        public final int maxSize;
+        /** 0 for the device rate. */
+        public final int maxFps;
+        public final int bitRate;
+
+        public Profile(int maxSize, int maxFps, int bitRate) {
+            this.maxSize = maxSize;
+            this.maxFps = maxFps;
+            this.bitRate = bitRate;
+        }
+
+        /**
+         * Server arguments for this profile, each followed by a space.
+         */
+        public String toServerArgs() {
+            return (maxSize > 0 ? "max_size=" + maxSize + " " : "")
+                    + (maxFps > 0 ? "max_fps=" + maxFps + " " : "")
+                    + "video_bit_rate=" + bitRate + " ";
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s@%s %.1f Mbps", maxSize > 0 ? maxSize + "p" : "native",
+                    maxFps > 0 ? String.valueOf(maxFps) : "max", bitRate / 1e6);
+        }
+    }
+
+    /**
+     * Stream health over one sampling interval.
+     */
+    public static final class Sample {
+        public final long nanoTime;
+        public final double receivedBitsPerSecond;
+        public final long queueDepth;
+        public final long framesDecoded;
+        public final long framesDropped;
+        /** Mean over the interval, 0 if no frame was rendered. */
+        public final long endToEndNanos;
+        /** Mean over the interval, 0 if no frame arrived. */
+        public final long transitJitterNanos;
+
+        public Sample(long nanoTime, double receivedBitsPerSecond, long queueDepth, long framesDecoded,
+                      long framesDropped, long endToEndNanos, long transitJitterNanos) {
+            this.nanoTime = nanoTime;
+            this.receivedBitsPerSecond = receivedBitsPerSecond;
+            this.queueDepth = queueDepth;
+            this.framesDecoded = framesDecoded;
+            this.framesDropped = framesDropped;
+            this.endToEndNanos = endToEndNanos;
+            this.transitJitterNanos = transitJitterNanos;
+        }
+    }
+
+    private static final Profile[] DEFAULT_LADDER = {
+            new Profile(1920, 60, 12_000_000),
+            new Profile(1600, 60, 8_000_000),
+            new Profile(1280, 60, 6_000_000),
+            new Profile(1024, 45, 4_000_000),
+            new Profile(854, 30, 2_500_000),
+            new Profile(640, 30, 1_500_000),
+            new Profile(426, 24, 800_000)
+    };
+
+    static final int DEGRADED_SAMPLES = 3;
+    static final int HEALTHY_SAMPLES = 30;
+    static final int MAX_HEALTHY_SAMPLES = 8 * HEALTHY_SAMPLES;
+    /** Samples right after a switch cover the reconnect and decoder warm-up; they are ignored. */
+    static final long SETTLE_NANOS = 5_000_000_000L;
+    static final long FLAP_WINDOW_NANOS = 60_000_000_000L;
+    /** A step down skips profiles whose bitrate exceeds this share of the measured throughput. */
+    private static final double THROUGHPUT_HEADROOM = 0.8;
+    private static final int MAX_STEPS_DOWN = 2;
+
+    private final Profile[] ladder;
+    private int level;
+    private int degradedRun;
+    private int healthyRun;
+    private int healthySamplesToStepUp = HEALTHY_SAMPLES;
+    private long lastSwitchNanos;
+    private long lastStepUpNanos;
+    private boolean stepUpConfirmed = true;
+
+    public StreamGovernor(List<Profile> ladder, long nowNanos) {
+        if (ladder.isEmpty()) {
+            throw new IllegalArgumentException("empty ladder");
+        }
+        this.ladder = ladder.toArray(new Profile[0]);
+        lastSwitchNanos = nowNanos;
+    }
+
+    /**
+     * The default ladder limited to {@code maxSize} and {@code maxFps} (0 for no limit); keeps at
+     * least the lowest profile.
+     */
+    public static List<Profile> ladder(int maxSize, int maxFps) {
+        List<Profile> ladder = new ArrayList<>();
+        for (Profile profile : DEFAULT_LADDER) {
+            if (maxSize > 0 && profile.maxSize > maxSize) {
+                continue;
+            }
+            int fps = maxFps > 0 ? Math.min(profile.maxFps, maxFps) : profile.maxFps;
+            ladder.add(new Profile(profile.maxSize, fps, profile.bitRate));
+        }
+        if (ladder.isEmpty()) {
+            Profile lowest = DEFAULT_LADDER[DEFAULT_LADDER.length - 1];
+            ladder.add(new Profile(maxSize, maxFps > 0 ? Math.min(lowest.maxFps, maxFps) : lowest.maxFps,
+                    lowest.bitRate));
+        }
+        return ladder;
+    }
+
+    public Profile profile() {
+        return ladder[level];
+    }
+
+    /**
+     * Returns the profile to switch to, or null to keep the current one.
+     */
+    public Profile onSample(Sample sample) {
+        long now = sample.nanoTime;
+        if (!stepUpConfirmed && now - lastStepUpNanos >= FLAP_WINDOW_NANOS) {
+            // The last step up held: relax the requirement again.
+            stepUpConfirmed = true;
+            healthySamplesToStepUp = Math.max(HEALTHY_SAMPLES, healthySamplesToStepUp / 2);
+        }
+        if (now - lastSwitchNanos < SETTLE_NANOS) {
+            return null;
+        }
+        if (isDegraded(sample)) {
+            degradedRun++;
+            healthyRun = 0;
+        } else if (isHealthy(sample)) {
+            healthyRun++;
+            degradedRun = 0;
+        } else {
+            degradedRun = 0;
+            healthyRun = 0;
+        }
+
+        if (degradedRun >= DEGRADED_SAMPLES && level < ladder.length - 1) {
+            int target = level + 1;
+            double affordable = sample.receivedBitsPerSecond * THROUGHPUT_HEADROOM;
+            while (target < ladder.length - 1 && target - level < MAX_STEPS_DOWN
+                    && ladder[target].bitRate > affordable) {
+                target++;
+            }
+            if (!stepUpConfirmed) {
+                stepUpConfirmed = true;
+                healthySamplesToStepUp = Math.min(MAX_HEALTHY_SAMPLES, healthySamplesToStepUp * 2);
+            }
+            return switchTo(target, now);
+        }
+        if (healthyRun >= healthySamplesToStepUp && level > 0) {
+            lastStepUpNanos = now;
+            stepUpConfirmed = false;
+            return switchTo(level - 1, now);
+        }
+        return null;
+    }
+
+    private Profile switchTo(int target, long now) {
+        level = target;
+        degradedRun = 0;
+        healthyRun = 0;
+        lastSwitchNanos = now;
+        return ladder[level];
+    }
+
+    private static boolean isDegraded(Sample sample) {
+        long frames = sample.framesDecoded + sample.framesDropped;
+        return (frames > 0 && sample.framesDropped * 10 > frames)
+                || sample.queueDepth >= 8
+                || sample.transitJitterNanos > 80_000_000L
+                || sample.endToEndNanos > 200_000_000L;
+    }
+
+    /**
+     * Healthy needs frames: an idle stream says nothing about the link.
+     */
+    private static boolean isHealthy(Sample sample) {
+        return sample.framesDecoded > 0
+                && sample.framesDropped * 100 < sample.framesDecoded
+                && sample.queueDepth <= 2
+                && sample.transitJitterNanos < 25_000_000L
+                && sample.endToEndNanos < 80_000_000L;
+    }
+}
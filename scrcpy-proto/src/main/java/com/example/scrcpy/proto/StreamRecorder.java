@@ -0,0 +1,327 @@
+package com.example.scrcpy.proto;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tee for the encoded video stream. Packets are copied into pooled buffers and handed to a writer
+ * thread through a bounded queue; {@link #offer} never blocks. When the queue is full the rest of
+ * the GOP is dropped, so the recording resumes cleanly at the next key frame.
+ *
+ * <p>A {@link TraceSink} gets the stream as offered instead: config packets stay where they were,
+ * nothing waits for a key frame, and a full queue drops single packets, reported as gaps.
+ */
+public final class StreamRecorder implements Closeable {
+    public interface Sink extends Closeable {
+        /**
+         * Called on the writer thread, in stream order, starting with a config packet.
+         * {@code arrivalNanos} is the {@link System#nanoTime()} at which the packet was offered.
+         */
+        void writePacket(long ptsAndFlags, byte[] data, int length, long arrivalNanos) throws IOException;
+    }
+
+    public interface TraceSink extends Sink {
+        /**
+         * Called on the writer thread before the packet that follows {@code packets} dropped ones.
+         */
+        void writeGap(int packets) throws IOException;
+    }
+
+    public interface Listener {
+        /**
+         * Called on the writer thread once the sink is closed; the counters and {@link #error()}
+         * are final by then.
+         */
+        void onFinished(StreamRecorder recorder);
+    }
+
+    public static final int DEFAULT_MAX_QUEUED_PACKETS = 256;
+    public static final int DEFAULT_MAX_QUEUED_BYTES = 32 * 1024 * 1024;
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    private final Sink sink;
+    private final boolean trace;
+    private final Listener listener;
+    private final int maxQueuedBytes;
+    private final ArrayBlockingQueue<PooledPacket> queue;
+    private final PacketPool pool = new PacketPool(16);
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong writtenPackets = new AtomicLong();
+    private final AtomicLong droppedPackets = new AtomicLong();
+    private final AtomicLong droppedGops = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile IOException error;
+
+    // Producer-side state, only touched by the thread calling offer().
+    private byte[] lastConfig;
+    private long lastConfigPtsAndFlags;
+    private int lastConfigLength;
+    private boolean configPending;
+    private boolean waitingForKeyFrame = true;
+    private int droppedSinceQueued;
+
+    public StreamRecorder(Sink sink) {
+        this(sink, null);
+    }
+
+    /**
+     * @param listener told when the recording is finished, or null
+     */
+    public StreamRecorder(Sink sink, Listener listener) {
+        this(sink, DEFAULT_MAX_QUEUED_PACKETS, DEFAULT_MAX_QUEUED_BYTES, listener);
+    }
+
+    public StreamRecorder(Sink sink, int maxQueuedPackets, int maxQueuedBytes, Listener listener) {
+        this.sink = sink;
+        trace = sink instanceof TraceSink;
+        this.listener = listener;
+        this.maxQueuedBytes = maxQueuedBytes;
+        queue = new ArrayBlockingQueue<>(maxQueuedPackets);
+        writer = new Thread(this::writeLoop, "scrcpy-recorder");
+        writer.start();
+    }
+
+    /**
+     * Copies the remaining bytes of {@code data} without moving its position.
+     */
+    public boolean offer(long ptsAndFlags, ByteBuffer data) {
+        int position = data.position();
+        int length = data.remaining();
+        try {
+            if (trace) {
+                if (!admitTrace(length)) {
+                    return false;
+                }
+                PooledPacket packet = pool.acquire(ptsAndFlags, length);
+                data.get(packet.data(), 0, length);
+                packet.setArrivalNanos(System.nanoTime());
+                return enqueue(packet);
+            }
+            if (FrameHeader.isConfig(ptsAndFlags)) {
+                data.get(configBuffer(ptsAndFlags, length), 0, length);
+                return true;
+            }
+            if (!admit(ptsAndFlags, length)) {
+                return false;
+            }
+            PooledPacket packet = pool.acquire(ptsAndFlags, length);
+            data.get(packet.data(), 0, length);
+            packet.setArrivalNanos(System.nanoTime());
+            return enqueue(packet);
+        } finally {
+            data.position(position);
+        }
+    }
+
+    /**
+     * Copies a packet read from the stream, keeping the time at which the reader received it.
+     */
+    public boolean offer(PooledPacket packet) {
+        long arrivalNanos = packet.arrivalNanos();
+        return offer(packet.ptsAndFlags(), packet.data(), 0, packet.size(),
+                arrivalNanos != 0 ? arrivalNanos : System.nanoTime());
+    }
+
+    public boolean offer(long ptsAndFlags, byte[] data, int offset, int length) {
+        return offer(ptsAndFlags, data, offset, length, System.nanoTime());
+    }
+
+    private boolean offer(long ptsAndFlags, byte[] data, int offset, int length, long arrivalNanos) {
+        if (trace) {
+            if (!admitTrace(length)) {
+                return false;
+            }
+            PooledPacket packet = pool.acquire(ptsAndFlags, length);
+            System.arraycopy(data, offset, packet.data(), 0, length);
+            packet.setArrivalNanos(arrivalNanos);
+            return enqueue(packet);
+        }
+        if (FrameHeader.isConfig(ptsAndFlags)) {
+            System.arraycopy(data, offset, configBuffer(ptsAndFlags, length), 0, length);
+            return true;
+        }
+        if (!admit(ptsAndFlags, length)) {
+            return false;
+        }
+        PooledPacket packet = pool.acquire(ptsAndFlags, length);
+        System.arraycopy(data, offset, packet.data(), 0, length);
+        packet.setArrivalNanos(arrivalNanos);
+        return enqueue(packet);
+    }
+
+    /**
+     * Whether a packet for a {@link TraceSink} fits in the queue; one that does not is dropped on
+     * its own.
+     */
+    private boolean admitTrace(int length) {
+        if (closed || error != null) {
+            return false;
+        }
+        if (queue.remainingCapacity() == 0 || queuedBytes.get() + length > maxQueuedBytes) {
+            droppedPackets.incrementAndGet();
+            droppedSinceQueued++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Config packets are kept aside and written in front of the next admitted key frame, so the
+     * config is repeated whenever the recording resumes after a drop.
+     */
+    private byte[] configBuffer(long ptsAndFlags, int length) {
+        if (lastConfig == null || lastConfig.length < length) {
+            lastConfig = new byte[length];
+        }
+        lastConfigLength = length;
+        lastConfigPtsAndFlags = ptsAndFlags;
+        configPending = true;
+        waitingForKeyFrame = true;
+        return lastConfig;
+    }
+
+    /**
+     * Decides whether a frame can be queued, dropping up to the next key frame once the writer has
+     * fallen behind.
+     */
+    private boolean admit(long ptsAndFlags, int length) {
+        if (closed || error != null) {
+            return false;
+        }
+        boolean keyFrame = FrameHeader.isKeyFrame(ptsAndFlags);
+        if (waitingForKeyFrame && (!keyFrame || lastConfig == null)) {
+            droppedPackets.incrementAndGet();
+            return false;
+        }
+        int needed = keyFrame && configPending ? 2 : 1;
+        long neededBytes = length + (keyFrame && configPending ? lastConfigLength : 0);
+        if (queue.remainingCapacity() < needed || queuedBytes.get() + neededBytes > maxQueuedBytes) {
+            droppedPackets.incrementAndGet();
+            if (!waitingForKeyFrame || keyFrame) {
+                droppedGops.incrementAndGet();
+            }
+            waitingForKeyFrame = true;
+            return false;
+        }
+        if (keyFrame) {
+            if (configPending && !enqueueCopy(lastConfigPtsAndFlags, lastConfig, lastConfigLength)) {
+                return false;
+            }
+            configPending = false;
+            waitingForKeyFrame = false;
+        }
+        return true;
+    }
+
+    private boolean enqueueCopy(long ptsAndFlags, byte[] data, int length) {
+        PooledPacket packet = pool.acquire(ptsAndFlags, length);
+        System.arraycopy(data, 0, packet.data(), 0, length);
+        packet.setArrivalNanos(System.nanoTime());
+        return enqueue(packet);
+    }
+
+    private boolean enqueue(PooledPacket packet) {
+        int size = packet.size();
+        packet.setDroppedBefore(droppedSinceQueued);
+        queuedBytes.addAndGet(size);
+        if (!queue.offer(packet)) {
+            queuedBytes.addAndGet(-size);
+            packet.release();
+            droppedPackets.incrementAndGet();
+            waitingForKeyFrame = true;
+            if (trace) {
+                droppedSinceQueued++;
+            }
+            return false;
+        }
+        droppedSinceQueued = 0;
+        return true;
+    }
+
+    public long writtenPackets() {
+        return writtenPackets.get();
+    }
+
+    public long droppedPackets() {
+        return droppedPackets.get();
+    }
+
+    public long droppedGops() {
+        return droppedGops.get();
+    }
+
+    /**
+     * The write error that stopped the recording, or null.
+     */
+    public IOException error() {
+        return error;
+    }
+
+    /**
+     * Stops accepting packets. The writer thread drains what is already queued and closes the sink
+     * in the background, so this does not block; the {@link Listener} hears when it is done.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Waits for the writer thread to finish after {@link #close()}.
+     */
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        writer.join(timeoutMs);
+        return !writer.isAlive();
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                PooledPacket packet = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (packet == null) {
+                    if (closed) {
+                        break;
+                    }
+                    continue;
+                }
+                queuedBytes.addAndGet(-packet.size());
+                try {
+                    if (error == null) {
+                        if (packet.droppedBefore() > 0) {
+                            ((TraceSink) sink).writeGap(packet.droppedBefore());
+                        }
+                        sink.writePacket(packet.ptsAndFlags(), packet.data(), packet.size(), packet.arrivalNanos());
+                        writtenPackets.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    packet.release();
+                }
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closed = true;
+            try {
+                sink.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+            PooledPacket packet;
+            while ((packet = queue.poll()) != null) {
+                packet.release();
+            }
+            if (listener != null) {
+                listener.onFinished(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.scrcpy.proto;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Video codecs scrcpy can stream, keyed by the codec id sent in {@link VideoCodecMetadata}.
+ */
+public enum VideoCodec {
+    H264(0x68_32_36_34, "h264", "video/avc"),
+    H265(0x68_32_36_35, "h265", "video/hevc"),
+    AV1(0x00_61_76_31, "av1", "video/av01");
+
+    public final int id;
+    /**
+     * Value of the server {@code video_codec=} argument.
+     */
+    public final String serverName;
+    public final String mimeType;
+
+    VideoCodec(int id, String serverName, String mimeType) {
+        this.id = id;
+        this.serverName = serverName;
+        this.mimeType = mimeType;
+    }
+
+    public static VideoCodec fromId(int id) {
+        for (VideoCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Extracts the decoder csd buffers ({@code csd-0}, {@code csd-1}, ...) from a config packet, or
+     * returns null if the packet does not contain a complete configuration.
+     */
+    public ByteBuffer[] extractCsd(byte[] configPacket, int length) {
+        switch (this) {
+            case H264:
+                return AvcConfigParser.extractCsd(configPacket, length);
+            case H265:
+                return HevcConfigParser.extractCsd(configPacket, length);
+            case AV1:
+                return Av1ConfigParser.extractCsd(configPacket, length);
+            default:
+                throw new IllegalStateException("Unknown codec: " + this);
+        }
+    }
+}
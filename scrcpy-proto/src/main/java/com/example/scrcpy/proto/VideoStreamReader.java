@@ -0,0 +1,40 @@
+package com.example.scrcpy.proto;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface VideoStreamReader extends Closeable {
+    VideoCodecMetadata readCodecMetadata() throws IOException;
+
+    /**
+     * Reads the next frame header and returns its raw {@code ptsAndFlags}, to be decoded with the
+     * {@link FrameHeader} static accessors; the body size is then {@link #pendingPacketSize()}. The
+     * body must be consumed with one of the {@code readPacketBody} variants or
+     * {@link #skipPacketBody()} before the next header is read.
+     */
+    long readRawPacketHeader() throws IOException;
+
+    /**
+     * Size of the packet whose header was read last, or -1 once its body has been consumed.
+     */
+    int pendingPacketSize();
+
+    /**
+     * Allocating convenience over {@link #readRawPacketHeader()}.
+     */
+    default FrameHeader readPacketHeader() throws IOException {
+        long ptsAndFlags = readRawPacketHeader();
+        return FrameHeader.fromWire(ptsAndFlags, pendingPacketSize());
+    }
+
+    void readPacketBody(ByteBuffer target) throws IOException;
+
+    /**
+     * Reads the body into a pool buffer and stamps {@link PooledPacket#headerNanos()} and
+     * {@link PooledPacket#arrivalNanos()}.
+     */
+    PooledPacket readPacketBody(PacketPool pool) throws IOException;
+
+    void skipPacketBody() throws IOException;
+}